@@ -0,0 +1,34 @@
+package fr.gouv.stopc.robert.pushnotif.database;
+
+/**
+ * Converts APNs tokens between their lower case hexadecimal representation and
+ * the bytes stored in the token column of the push table.
+ */
+public final class ApnsTokenCodec {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ApnsTokenCodec() {
+    }
+
+    /**
+     * Decodes a token made of an even number of hexadecimal digits.
+     */
+    public static byte[] toBytes(final String hexToken) {
+        final var bytes = new byte[hexToken.length() / 2];
+        for (var i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hexToken.charAt(i * 2), 16) << 4)
+                    | Character.digit(hexToken.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    public static String toHexString(final byte[] token) {
+        final var hex = new char[token.length * 2];
+        for (var i = 0; i < token.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(token[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[token[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,4 @@
+-- supports the scheduler queries walking through due pushes ordered by
+-- (next_planned_push, id) with index-only scans
+create index concurrently if not exists idx_push_due on push (next_planned_push, id) include (token, timezone)
+    where active and not deleted;
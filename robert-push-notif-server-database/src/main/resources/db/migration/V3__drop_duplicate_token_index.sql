@@ -0,0 +1,2 @@
+-- the unique constraint on token already provides an index
+drop index concurrently if exists idx_token;
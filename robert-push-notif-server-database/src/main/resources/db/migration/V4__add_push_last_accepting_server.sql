@@ -0,0 +1,3 @@
+-- APNs server (host:port) which accepted the last notification sent to the
+-- token, used by the scheduler to send the next notifications there directly
+alter table push add column if not exists last_accepting_server character varying(255);
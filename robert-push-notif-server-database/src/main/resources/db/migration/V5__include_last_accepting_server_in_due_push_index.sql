@@ -0,0 +1,6 @@
+-- keeps index-only scans for the scheduler queries now reading the last
+-- accepting server of due pushes
+create index concurrently if not exists idx_push_due_routing on push (next_planned_push, id)
+    include (token, timezone, last_accepting_server)
+    where active and not deleted;
+drop index concurrently if exists idx_push_due;
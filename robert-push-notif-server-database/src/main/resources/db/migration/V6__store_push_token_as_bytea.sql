@@ -0,0 +1,45 @@
+-- tokens are stored as the bytes they encode, half the size of their
+-- hexadecimal representation: currently 32 bytes, up to 100 bytes as Apple
+-- documents tokens as variable length. Rows removed by this migration are
+-- kept in a backup table
+create table push_removed_by_token_migration as
+    select * from push with no data;
+
+-- rows whose token can not be sent are removed
+with removed as (
+    delete from push
+        where lower(regexp_replace(token, '[\s<>]', '', 'g')) !~ '^([0-9a-f]{2}){32,100}$'
+        returning *
+)
+insert into push_removed_by_token_migration
+    select * from removed;
+
+-- different spellings of the same token become duplicates, an active and not
+-- deleted row is kept first, then the last created one
+with ranked as (
+    select id,
+           row_number() over (
+               partition by lower(regexp_replace(token, '[\s<>]', '', 'g'))
+               order by coalesce(active and not deleted, false) desc,
+                        creation_date desc nulls last,
+                        id desc
+           ) as rank
+        from push
+),
+removed as (
+    delete from push
+        using ranked
+        where push.id = ranked.id
+          and ranked.rank > 1
+        returning push.*
+)
+insert into push_removed_by_token_migration
+    select * from removed;
+
+alter table push drop constraint push_token_key;
+alter table push alter column token type bytea
+    using decode(lower(regexp_replace(token, '[\s<>]', '', 'g')), 'hex');
+
+-- hash indexes can't be unique, an exclusion constraint enforces the uniqueness
+-- of tokens with a hash index
+alter table push add constraint push_token_key exclude using hash (token with =);
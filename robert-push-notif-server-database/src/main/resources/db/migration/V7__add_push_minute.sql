@@ -0,0 +1,3 @@
+-- stable local minute of the day at which the push is sent when the scheduler
+-- runs in MINUTE_BUCKET mode, assigned once by the scheduler
+alter table push add column if not exists push_minute smallint;
@@ -0,0 +1,7 @@
+-- supports the MINUTE_BUCKET scheduler queries looking up the pushes of a
+-- (push_minute, timezone) bucket and the pushes without a minute yet
+create index concurrently if not exists idx_push_minute on push (push_minute, timezone)
+    include (id, token, last_accepting_server)
+    where active and not deleted;
+create index concurrently if not exists idx_push_minute_unassigned on push (id)
+    where push_minute is null;
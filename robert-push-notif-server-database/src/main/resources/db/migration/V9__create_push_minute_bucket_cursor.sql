@@ -0,0 +1,8 @@
+-- last epoch minute whose buckets have been polled by the scheduler in
+-- MINUTE_BUCKET mode, shared by the scheduler instances so that the buckets
+-- missed during a restart are caught up and a new leader doesn't send again the
+-- buckets of the previous one, null before the first poll
+create table push_minute_bucket_cursor (
+    last_polled_minute bigint
+);
+insert into push_minute_bucket_cursor (last_polled_minute) values (null);
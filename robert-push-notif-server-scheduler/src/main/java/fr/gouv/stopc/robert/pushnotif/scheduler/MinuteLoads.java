@@ -0,0 +1,166 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Number of notifications planned in each minute of a fixed number of minutes,
+ * indexed from 0.
+ * <p>
+ * A segment tree keeps the least load of each range of minutes and how many
+ * minutes hold it, so that the least loaded minutes of any range are found and
+ * picked in logarithmic time instead of scanning the range.
+ */
+class MinuteLoads {
+
+    private final int minutes;
+
+    private final int[] loads;
+
+    /**
+     * Least load of the minutes covered by each tree node, the root being 1 and the
+     * children of node n being 2n and 2n+1.
+     */
+    private final int[] minLoads;
+
+    /**
+     * Number of minutes of each tree node holding its least load.
+     */
+    private final int[] minLoadCounts;
+
+    MinuteLoads(final int minutes) {
+        this.minutes = minutes;
+        this.loads = new int[minutes];
+        this.minLoads = new int[4 * minutes];
+        this.minLoadCounts = new int[4 * minutes];
+        build(1, 0, minutes);
+    }
+
+    int get(final int minute) {
+        return loads[minute];
+    }
+
+    void set(final int minute, final int load) {
+        loads[minute] = load;
+        update(1, 0, minutes, minute);
+    }
+
+    void increment(final int minute) {
+        set(minute, loads[minute] + 1);
+    }
+
+    /**
+     * Replaces the load of every minute.
+     */
+    void setAll(final IntUnaryOperator loadOfMinute) {
+        Arrays.setAll(loads, loadOfMinute);
+        build(1, 0, minutes);
+    }
+
+    /**
+     * Returns the least load of the minutes between from included and to excluded.
+     */
+    int minLoad(final int from, final int to) {
+        return minLoad(1, 0, minutes, from, to);
+    }
+
+    /**
+     * Returns how many minutes between from included and to excluded hold the given
+     * load, which must be the least load of these minutes.
+     */
+    int countMinLoad(final int load, final int from, final int to) {
+        return countMinLoad(1, 0, minutes, load, from, to);
+    }
+
+    /**
+     * Returns the n-th minute, starting from 0, between from included and to
+     * excluded holding the given load, which must be the least load of these
+     * minutes.
+     */
+    int nthMinLoadMinute(final int load, final int n, final int from, final int to) {
+        return nthMinLoadMinute(1, 0, minutes, load, new int[] { n }, from, to);
+    }
+
+    private void build(final int node, final int nodeFrom, final int nodeTo) {
+        if (nodeTo - nodeFrom == 1) {
+            minLoads[node] = loads[nodeFrom];
+            minLoadCounts[node] = 1;
+            return;
+        }
+        final var middle = (nodeFrom + nodeTo) >>> 1;
+        build(2 * node, nodeFrom, middle);
+        build(2 * node + 1, middle, nodeTo);
+        pull(node);
+    }
+
+    private void update(final int node, final int nodeFrom, final int nodeTo, final int minute) {
+        if (nodeTo - nodeFrom == 1) {
+            minLoads[node] = loads[minute];
+            return;
+        }
+        final var middle = (nodeFrom + nodeTo) >>> 1;
+        if (minute < middle) {
+            update(2 * node, nodeFrom, middle, minute);
+        } else {
+            update(2 * node + 1, middle, nodeTo, minute);
+        }
+        pull(node);
+    }
+
+    private void pull(final int node) {
+        final var left = 2 * node;
+        final var right = left + 1;
+        minLoads[node] = Math.min(minLoads[left], minLoads[right]);
+        minLoadCounts[node] = (minLoads[left] == minLoads[node] ? minLoadCounts[left] : 0)
+                + (minLoads[right] == minLoads[node] ? minLoadCounts[right] : 0);
+    }
+
+    private int minLoad(final int node, final int nodeFrom, final int nodeTo, final int from, final int to) {
+        if (to <= nodeFrom || nodeTo <= from) {
+            return Integer.MAX_VALUE;
+        }
+        if (from <= nodeFrom && nodeTo <= to) {
+            return minLoads[node];
+        }
+        final var middle = (nodeFrom + nodeTo) >>> 1;
+        return Math.min(
+                minLoad(2 * node, nodeFrom, middle, from, to),
+                minLoad(2 * node + 1, middle, nodeTo, from, to)
+        );
+    }
+
+    private int countMinLoad(final int node, final int nodeFrom, final int nodeTo, final int load,
+            final int from, final int to) {
+        if (to <= nodeFrom || nodeTo <= from || minLoads[node] > load) {
+            return 0;
+        }
+        if (from <= nodeFrom && nodeTo <= to) {
+            return minLoadCounts[node];
+        }
+        final var middle = (nodeFrom + nodeTo) >>> 1;
+        return countMinLoad(2 * node, nodeFrom, middle, load, from, to)
+                + countMinLoad(2 * node + 1, middle, nodeTo, load, from, to);
+    }
+
+    /**
+     * Searches the minute in the node, decrementing the remaining count of minutes
+     * holding the load to skip as they are passed, -1 when it is not in the node.
+     */
+    private int nthMinLoadMinute(final int node, final int nodeFrom, final int nodeTo, final int load,
+            final int[] remaining, final int from, final int to) {
+        if (to <= nodeFrom || nodeTo <= from || minLoads[node] > load) {
+            return -1;
+        }
+        if (from <= nodeFrom && nodeTo <= to && remaining[0] >= minLoadCounts[node]) {
+            remaining[0] -= minLoadCounts[node];
+            return -1;
+        }
+        if (nodeTo - nodeFrom == 1) {
+            return nodeFrom;
+        }
+        final var middle = (nodeFrom + nodeTo) >>> 1;
+        final var minute = nthMinLoadMinute(2 * node, nodeFrom, middle, load, remaining, from, to);
+        return minute != -1 ? minute
+                : nthMinLoadMinute(2 * node + 1, middle, nodeTo, load, remaining, from, to);
+    }
+}
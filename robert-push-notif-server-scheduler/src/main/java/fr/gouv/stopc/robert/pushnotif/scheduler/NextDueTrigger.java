@@ -0,0 +1,60 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Schedules the next run when the earliest next push date is reached, instead
+ * of polling the due notifications at a fixed delay.
+ * <p>
+ * The first run starts immediately. After a run, the next one is scheduled at
+ * the earliest next push date, at most {@code maxIdleInterval} later to notice
+ * the notifications registered meanwhile. When notifications are still due
+ * after a run, because another instance holds the leadership or because they
+ * could not be rescheduled, the next run is delayed by {@code delayInMs}, as
+ * when the next push date can not be read.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class NextDueTrigger implements Trigger {
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final RobertPushServerProperties.Scheduler schedulerProperties;
+
+    @Override
+    public Date nextExecutionTime(final TriggerContext triggerContext) {
+        final var lastCompletion = triggerContext.lastCompletionTime();
+        if (lastCompletion == null) {
+            return new Date();
+        }
+        final var now = Instant.now();
+        final var maxIdle = now.plus(schedulerProperties.getMaxIdleInterval());
+        final var retryRun = lastCompletion.toInstant().plusMillis(schedulerProperties.getDelayInMs());
+        Instant nextRun;
+        try {
+            nextRun = pushInfoRepository.findNextPlannedPush()
+                    .map(nextPlannedPush -> {
+                        if (nextPlannedPush.isAfter(now)) {
+                            return nextPlannedPush.isBefore(maxIdle) ? nextPlannedPush : maxIdle;
+                        }
+                        return retryRun;
+                    })
+                    .orElse(maxIdle);
+        } catch (final DataAccessException e) {
+            // an exception would never schedule the task again
+            log.warn("Unable to read the next push date, next run scheduled at {}", retryRun, e);
+            nextRun = retryRun;
+        }
+        log.debug("Next notifications run scheduled at {}", nextRun);
+        return Date.from(nextRun);
+    }
+}
@@ -0,0 +1,241 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.WakeUpNotificationFactory;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsOperations;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsResponseHandler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushOutcomeBuffer;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.model.PushInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static com.eatthepath.pushy.apns.util.SimpleApnsPushNotification.DEFAULT_EXPIRATION_PERIOD;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.STREAMING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Sends notifications continuously when
+ * {@link RobertPushServerProperties.Scheduler.Mode#STREAMING} is used, instead
+ * of runs waiting for the last APNs response before the next one can start.
+ * <p>
+ * A reader thread claims due notifications chunk by chunk and puts them in a
+ * bounded queue, it blocks when the queue is full and waits for
+ * {@code idle-poll-interval} when no more notifications are due. A dispatcher
+ * thread takes the notifications from the queue and sends them through the APNs
+ * templates, which rate limit them and block when too many notifications are
+ * pending. Outcomes are written by the {@link PushOutcomeBuffer}.
+ * <p>
+ * The depth of each stage is exported by the "push.pipeline.queue.depth" gauge
+ * and its throughput by the "push.pipeline.processed" counter, both tagged with
+ * the stage. The "push.notifier.lag" gauge is updated each time the queue is
+ * drained and at least every minute while it is not.
+ * <p>
+ * The pipeline starts after the APNs connections warm-up. When the application
+ * stops, the queued notifications are sent and their outcomes written within
+ * the batch termination grace time. Notifications claimed but not yet queued
+ * are put back to the push date they were due at.
+ */
+@Slf4j
+@Component
+@DependsOn("apnsWarmUp")
+public class NotificationPipeline implements SmartLifecycle {
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final PushOutcomeBuffer pushOutcomeBuffer;
+
+    private final SchedulerLeaderElection schedulerLeaderElection;
+
+    private final Scheduler scheduler;
+
+    private final RobertPushServerProperties robertPushServerProperties;
+
+    private final ApnsOperations<FailoverApnsResponseHandler> apnsTemplate;
+
+    private final BlockingQueue<PushInfo> queue;
+
+    private final Counter readCounter;
+
+    private final Counter dispatchCounter;
+
+    private final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("push-pipeline-");
+
+    private volatile boolean running;
+
+    /**
+     * Released when the pipeline stops, to wake up the idle reader.
+     */
+    private CountDownLatch stopping;
+
+    private Thread reader;
+
+    private Thread dispatcher;
+
+    public NotificationPipeline(final PushInfoRepository pushInfoRepository,
+            final PushOutcomeBuffer pushOutcomeBuffer,
+            final SchedulerLeaderElection schedulerLeaderElection,
+            final Scheduler scheduler,
+            final RobertPushServerProperties robertPushServerProperties,
+            final ApnsOperations<FailoverApnsResponseHandler> apnsTemplate,
+            final MeterRegistry meterRegistry) {
+        this.pushInfoRepository = pushInfoRepository;
+        this.pushOutcomeBuffer = pushOutcomeBuffer;
+        this.schedulerLeaderElection = schedulerLeaderElection;
+        this.scheduler = scheduler;
+        this.robertPushServerProperties = robertPushServerProperties;
+        this.apnsTemplate = apnsTemplate;
+        this.queue = new ArrayBlockingQueue<>(robertPushServerProperties.getStreaming().getQueueCapacity());
+        Gauge.builder("push.pipeline.queue.depth", queue, BlockingQueue::size)
+                .description("notifications waiting in a stage of the streaming pipeline")
+                .tag("stage", "dispatch")
+                .register(meterRegistry);
+        this.readCounter = Counter.builder("push.pipeline.processed")
+                .description("notifications processed by a stage of the streaming pipeline")
+                .tag("stage", "read")
+                .register(meterRegistry);
+        this.dispatchCounter = Counter.builder("push.pipeline.processed")
+                .description("notifications processed by a stage of the streaming pipeline")
+                .tag("stage", "dispatch")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (robertPushServerProperties.getScheduler().getMode() != STREAMING) {
+            return;
+        }
+        running = true;
+        stopping = new CountDownLatch(1);
+        reader = threadFactory.newThread(this::read);
+        dispatcher = threadFactory.newThread(this::dispatch);
+        reader.start();
+        dispatcher.start();
+        log.info("Streaming pipeline started");
+    }
+
+    private void read() {
+        final var chunkSize = robertPushServerProperties.getScheduler().getClaimChunkSize();
+        final var minPushHour = robertPushServerProperties.getMinPushHour();
+        final var pushWindowHours = Scheduler
+                .durationBetweenHours(minPushHour, robertPushServerProperties.getMaxPushHour());
+        final var idlePollInterval = robertPushServerProperties.getStreaming().getIdlePollInterval().toMillis();
+        try {
+            while (running) {
+                var claimedCount = 0;
+                try {
+                    if (schedulerLeaderElection.acquireLeadership()) {
+                        final var claimedPushInfos = pushInfoRepository
+                                .claimNotificationsToBeSent(chunkSize, minPushHour, pushWindowHours);
+                        claimedCount = claimedPushInfos.size();
+                        var queuedCount = 0;
+                        while (running && queuedCount < claimedCount) {
+                            if (queue.offer(claimedPushInfos.get(queuedCount), 100, MILLISECONDS)) {
+                                queuedCount++;
+                            }
+                        }
+                        readCounter.increment(queuedCount);
+                        release(claimedPushInfos.subList(queuedCount, claimedCount));
+                    }
+                } catch (final RuntimeException e) {
+                    log.error("Unable to claim due notifications", e);
+                }
+                if (claimedCount < chunkSize) {
+                    stopping.await(idlePollInterval, MILLISECONDS);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts the claimed notifications which have not been queued back to the push
+     * date they were due at, unless they have been rescheduled meanwhile.
+     */
+    private void release(final List<PushInfo> pushInfos) {
+        if (pushInfos.isEmpty()) {
+            return;
+        }
+        pushInfos.forEach(
+                pushInfo -> pushInfoRepository.rescheduleIfStillPlannedAt(
+                        pushInfo.getId(), pushInfo.getClaimedUntil(), pushInfo.getNextPlannedPush()
+                )
+        );
+        log.info("{} claimed notifications are put back to their due date", pushInfos.size());
+    }
+
+    private void dispatch() {
+        var notificationFactory = newNotificationFactory();
+        var factoryRenewal = Instant.now().plusSeconds(60);
+        var maxLagMillis = Long.MIN_VALUE;
+        try {
+            // the reader may still queue claimed notifications until it stops
+            while (reader.isAlive() || !queue.isEmpty()) {
+                final var pushInfo = queue.poll(100, MILLISECONDS);
+                if (pushInfo == null) {
+                    scheduler.publishLag(maxLagMillis);
+                    maxLagMillis = Long.MIN_VALUE;
+                    continue;
+                }
+                if (Instant.now().isAfter(factoryRenewal)) {
+                    notificationFactory = newNotificationFactory();
+                    factoryRenewal = Instant.now().plusSeconds(60);
+                    scheduler.publishLag(maxLagMillis);
+                    maxLagMillis = Long.MIN_VALUE;
+                }
+                maxLagMillis = Math.max(maxLagMillis, scheduler.sendWakeUpNotification(notificationFactory, pushInfo));
+                dispatchCounter.increment();
+            }
+            scheduler.publishLag(maxLagMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WakeUpNotificationFactory newNotificationFactory() {
+        return new WakeUpNotificationFactory(
+                robertPushServerProperties.getApns().getTopic(),
+                Instant.now().plus(DEFAULT_EXPIRATION_PERIOD)
+        );
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stopping.countDown();
+        final var graceTime = robertPushServerProperties.getBatchTerminationGraceTime();
+        try {
+            reader.join(graceTime.toMillis());
+            dispatcher.join(graceTime.toMillis());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final var pendingNotifications = apnsTemplate.waitUntilNoActivity(graceTime);
+        if (pendingNotifications != 0) {
+            log.warn("{} notifications are still pending after {}", pendingNotifications, graceTime);
+        }
+        pushOutcomeBuffer.flush();
+        log.info("Streaming pipeline stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,23 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the number of notifications planned in each minute of the next days
+ * and the send capacity, at {@code /actuator/pushload}.
+ */
+@Component
+@Endpoint(id = "pushload")
+@RequiredArgsConstructor
+public class PushLoadEndpoint {
+
+    private final PushSlotAllocator pushSlotAllocator;
+
+    @ReadOperation
+    public PushSlotAllocator.LoadCurve loadCurve() {
+        return pushSlotAllocator.loadCurve();
+    }
+}
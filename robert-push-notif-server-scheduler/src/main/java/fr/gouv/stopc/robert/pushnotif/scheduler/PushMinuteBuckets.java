@@ -0,0 +1,116 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Tells which minute buckets are due when
+ * {@link fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode#MINUTE_BUCKET}
+ * is used.
+ * <p>
+ * Each token is sent every day at its own stable local minute of the day, a
+ * bucket is then a timezone and a local minute of the day. A UTC minute is the
+ * due minute of the bucket of each timezone holding its local time, except for
+ * daylight saving time transitions:
+ * <ul>
+ * <li>local minutes skipped when clocks are set forward are due at the
+ * transition, with the first minute after it</li>
+ * <li>local minutes repeated when clocks are set back are only due on their
+ * first occurrence</li>
+ * </ul>
+ * Minutes missed since the previous poll are caught up, within the last
+ * {@value #MAX_CATCH_UP_MINUTES} minutes. The last polled minute is stored in
+ * the database, so that the minutes missed during a restart are caught up and
+ * that a minute is polled by a single scheduler instance.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PushMinuteBuckets {
+
+    static final int MAX_CATCH_UP_MINUTES = 60;
+
+    private static final List<ZoneId> ZONES = ZoneId.getAvailableZoneIds().stream()
+            .sorted()
+            .map(ZoneId::of)
+            .collect(toList());
+
+    private final PushInfoRepository pushInfoRepository;
+
+    /**
+     * Returns the buckets due since the previous poll, until the current minute
+     * included. The first poll returns the buckets of the current minute, a poll of
+     * a minute already polled returns no bucket.
+     */
+    List<Bucket> pollDue() {
+        final var currentMinute = Instant.now().getEpochSecond() / 60;
+        final var lastPolledMinute = pushInfoRepository.advanceLastPolledMinute(currentMinute);
+        if (lastPolledMinute.isEmpty()) {
+            log.debug("Minute buckets until {} have already been polled", currentMinute);
+            return List.of();
+        }
+        var afterMinute = lastPolledMinute.getAsLong();
+        if (currentMinute - afterMinute > MAX_CATCH_UP_MINUTES) {
+            log.warn(
+                    "Skipping {} minute buckets missed since the previous run",
+                    currentMinute - afterMinute - MAX_CATCH_UP_MINUTES
+            );
+            afterMinute = currentMinute - MAX_CATCH_UP_MINUTES;
+        }
+        return between(afterMinute, currentMinute, ZONES);
+    }
+
+    /**
+     * Returns the buckets of the given timezones due after the epoch minute
+     * {@code afterMinute} and until {@code untilMinute} included.
+     */
+    static List<Bucket> between(final long afterMinute, final long untilMinute, final List<ZoneId> zones) {
+        final var buckets = new ArrayList<Bucket>();
+        for (var minute = afterMinute + 1; minute <= untilMinute; minute++) {
+            final var instant = Instant.ofEpochSecond(minute * 60);
+            for (final var zone : zones) {
+                final var rules = zone.getRules();
+                final var local = LocalDateTime.ofInstant(instant, zone);
+                final var validOffsets = rules.getValidOffsets(local);
+                if (validOffsets.size() == 2 && !validOffsets.get(0).equals(rules.getOffset(instant))) {
+                    // second occurrence of a local minute repeated when clocks are set back
+                    continue;
+                }
+                var skipped = LocalDateTime.ofInstant(instant.minusSeconds(60), zone).plusMinutes(1);
+                for (; skipped.isBefore(local); skipped = skipped.plusMinutes(1)) {
+                    buckets.add(new Bucket(zone.getId(), minuteOfDay(skipped), minute));
+                }
+                buckets.add(new Bucket(zone.getId(), minuteOfDay(local), minute));
+            }
+        }
+        return buckets;
+    }
+
+    private static int minuteOfDay(final LocalDateTime local) {
+        return local.getHour() * 60 + local.getMinute();
+    }
+
+    @Value
+    static class Bucket {
+
+        String timezone;
+
+        int minuteOfDay;
+
+        /**
+         * The epoch minute at which the bucket is due.
+         */
+        long dueMinute;
+    }
+}
@@ -0,0 +1,162 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.model.PushInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Loads the notifications planned in the next
+ * {@code robert.push.server.timing-wheel.horizon} into a {@link TimingWheel},
+ * so that each minute's notifications are dispatched when the minute starts
+ * without querying the due notifications.
+ * <p>
+ * The wheel is refilled in the background by the scheduler leader, reading the
+ * notifications after the last loaded one. It holds at most
+ * {@code robert.push.server.timing-wheel.max-size} notifications, its size is
+ * exported by the "push.notifier.prefetched" gauge. Each refill also catches up
+ * the notifications rescheduled behind the last loaded one, such as retries,
+ * once their minute has been polled. A standby instance keeps its wheel empty.
+ */
+@Slf4j
+@Component
+public class PushPrefetcher {
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final SchedulerLeaderElection schedulerLeaderElection;
+
+    private final RobertPushServerProperties robertPushServerProperties;
+
+    private final TimingWheel<PushInfo> wheel = new TimingWheel<>(epochMinute(Instant.now()));
+
+    /**
+     * The last loaded notification, only accessed by the refill task.
+     */
+    private PushInfo lastLoaded;
+
+    public PushPrefetcher(final PushInfoRepository pushInfoRepository,
+            final SchedulerLeaderElection schedulerLeaderElection,
+            final RobertPushServerProperties robertPushServerProperties,
+            final MeterRegistry meterRegistry) {
+        this.pushInfoRepository = pushInfoRepository;
+        this.schedulerLeaderElection = schedulerLeaderElection;
+        this.robertPushServerProperties = robertPushServerProperties;
+        Gauge.builder("push.notifier.prefetched", this, PushPrefetcher::size)
+                .description("notifications loaded in the timing wheel and waiting for their minute")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the notifications planned until the horizon, after the last loaded one,
+     * as long as the wheel is not full. The notifications too far ahead for the
+     * wheel are not marked as loaded and are read again by the next refill.
+     */
+    public void refill() {
+        if (!schedulerLeaderElection.acquireLeadership()) {
+            if (lastLoaded != null) {
+                synchronized (wheel) {
+                    wheel.clear();
+                }
+                lastLoaded = null;
+                log.debug("Prefetched notifications are dropped by a standby instance");
+            }
+            return;
+        }
+        if (lastLoaded != null) {
+            catchUpRescheduled();
+        }
+        final var timingWheelProperties = robertPushServerProperties.getTimingWheel();
+        final var horizon = Instant.now().plus(timingWheelProperties.getHorizon());
+        final var chunkSize = robertPushServerProperties.getScheduler().getReadChunkSize();
+        var limit = Math.min(chunkSize, timingWheelProperties.getMaxSize() - size());
+        while (limit > 0) {
+            final var pushInfos = pushInfoRepository.findNotificationsPlannedUntil(lastLoaded, horizon, limit);
+            synchronized (wheel) {
+                for (final var pushInfo : pushInfos) {
+                    if (!wheel.add(dueMinute(pushInfo.getNextPlannedPush()), pushInfo)) {
+                        log.debug(
+                                "notifications planned from {} are left to the next refill",
+                                pushInfo.getNextPlannedPush()
+                        );
+                        return;
+                    }
+                    lastLoaded = pushInfo;
+                }
+            }
+            if (pushInfos.size() < limit) {
+                break;
+            }
+            limit = Math.min(chunkSize, timingWheelProperties.getMaxSize() - size());
+        }
+        log.debug("{} notifications planned until {} are prefetched", size(), horizon);
+    }
+
+    /**
+     * Loads the notifications planned before the last loaded one and due at or
+     * before the last polled minute: the notifications of this range loaded before
+     * have already been polled, these ones have been rescheduled since.
+     */
+    private void catchUpRescheduled() {
+        final Instant lastPolled;
+        synchronized (wheel) {
+            lastPolled = Instant.ofEpochSecond(wheel.currentMinute() * 60);
+        }
+        final var until = lastPolled.isBefore(lastLoaded.getNextPlannedPush()) ? lastPolled
+                : lastLoaded.getNextPlannedPush();
+        final var timingWheelProperties = robertPushServerProperties.getTimingWheel();
+        final var chunkSize = robertPushServerProperties.getScheduler().getReadChunkSize();
+        PushInfo after = null;
+        var caughtUpCount = 0;
+        var limit = Math.min(chunkSize, timingWheelProperties.getMaxSize() - size());
+        while (limit > 0) {
+            final var pushInfos = pushInfoRepository.findNotificationsPlannedUntil(after, until, limit);
+            synchronized (wheel) {
+                pushInfos.forEach(pushInfo -> wheel.add(dueMinute(pushInfo.getNextPlannedPush()), pushInfo));
+            }
+            caughtUpCount += pushInfos.size();
+            if (pushInfos.size() < limit) {
+                break;
+            }
+            after = pushInfos.get(pushInfos.size() - 1);
+            limit = Math.min(chunkSize, timingWheelProperties.getMaxSize() - size());
+        }
+        if (caughtUpCount != 0) {
+            log.debug("{} notifications rescheduled before {} are caught up", caughtUpCount, until);
+        }
+    }
+
+    /**
+     * Returns the notifications due at or before the current minute, removing them
+     * from the wheel.
+     */
+    public List<PushInfo> pollDue() {
+        synchronized (wheel) {
+            return wheel.pollUntil(epochMinute(Instant.now()));
+        }
+    }
+
+    private int size() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    private static long epochMinute(final Instant instant) {
+        return instant.getEpochSecond() / 60;
+    }
+
+    /**
+     * Returns the first minute starting at or after the instant, so that a
+     * notification is never dispatched before its planned date.
+     */
+    private static long dueMinute(final Instant nextPlannedPush) {
+        return (nextPlannedPush.getEpochSecond() + 59) / 60;
+    }
+}
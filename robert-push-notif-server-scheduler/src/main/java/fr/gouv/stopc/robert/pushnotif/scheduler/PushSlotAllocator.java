@@ -0,0 +1,176 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Allocates next push dates while keeping the global load flat.
+ * <p>
+ * Random push dates drawn in each device's local timezone pile up in the few
+ * UTC hours where the push windows of the most populated timezones overlap.
+ * This allocator keeps a histogram of the notifications planned in each minute
+ * of the next 3 days and assigns a notification to the least loaded minute of
+ * its push window, ties being broken randomly, found in logarithmic time by
+ * {@link MinuteLoads}. The load then stays under the send capacity,
+ * max-notifications-per-second per minute for each APNs server and sending
+ * instance, as long as the windows have room for it; allocations beyond it are
+ * counted by the "push.slot.allocator.over.capacity" counter.
+ * <p>
+ * The histogram is loaded from the database every
+ * slot-allocator.refresh-interval, to take into account the notifications
+ * planned by the registration service and other instances, and is updated in
+ * memory with each allocation meanwhile.
+ * <p>
+ * When slot-allocator.enabled is false, next push dates are drawn randomly from
+ * the push window but the load curve is still available.
+ */
+@Component
+public class PushSlotAllocator {
+
+    private static final int HISTOGRAM_MINUTES = 3 * 24 * 60;
+
+    private final PushWindowCache pushWindowCache;
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final boolean enabled;
+
+    private final Duration refreshInterval;
+
+    private final int capacityPerMinute;
+
+    private final Counter overCapacityCounter;
+
+    private final MinuteLoads plannedPerMinute = new MinuteLoads(HISTOGRAM_MINUTES);
+
+    /**
+     * The epoch minute of the first histogram slot.
+     */
+    private long firstMinute;
+
+    private Instant nextRefresh = Instant.MIN;
+
+    public PushSlotAllocator(final PushWindowCache pushWindowCache,
+            final PushInfoRepository pushInfoRepository,
+            final RobertPushServerProperties robertPushServerProperties,
+            final MeterRegistry meterRegistry) {
+        this.pushWindowCache = pushWindowCache;
+        this.pushInfoRepository = pushInfoRepository;
+        this.enabled = robertPushServerProperties.getSlotAllocator().isEnabled();
+        this.refreshInterval = robertPushServerProperties.getSlotAllocator().getRefreshInterval();
+        this.capacityPerMinute = capacityPerMinute(robertPushServerProperties);
+        this.overCapacityCounter = Counter.builder("push.slot.allocator.over.capacity")
+                .description("notifications planned in a minute already holding the send capacity")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the next push instant, truncated to the minute, in tomorrow's push
+     * window of the given timezone.
+     */
+    public Instant nextPushInstant(final String timezone) {
+        if (!enabled) {
+            return pushWindowCache.randomPushInstant(timezone);
+        }
+        return Instant.ofEpochSecond(allocate(pushWindowCache.window(timezone)) * 60);
+    }
+
+    /**
+     * Every APNs server has its own rate limit, and every instance sending
+     * notifications at the same time its own APNs clients.
+     */
+    private static int capacityPerMinute(final RobertPushServerProperties robertPushServerProperties) {
+        final var sendingInstances = robertPushServerProperties.getLeaderElection().isEnabled() ? 1
+                : robertPushServerProperties.getSlotAllocator().getSendingInstances();
+        return robertPushServerProperties.getMaxNotificationsPerSecond() * 60
+                * robertPushServerProperties.getApns().getClients().size()
+                * sendingInstances;
+    }
+
+    private synchronized long allocate(final PushWindowCache.PushWindow window) {
+        refreshIfStale();
+        // the window is made of at most 2 ranges of minutes, bounded to the histogram
+        final var firstFrom = histogramIndex(window.getFirstStartEpochMinute());
+        final var firstTo = histogramIndex(window.getFirstStartEpochMinute() + window.getFirstLength());
+        final var secondFrom = histogramIndex(window.getSecondStartEpochMinute());
+        final var secondTo = histogramIndex(
+                window.getSecondStartEpochMinute() + window.getLength() - window.getFirstLength()
+        );
+        if (firstFrom == firstTo && secondFrom == secondTo) {
+            return window.epochMinuteAt(ThreadLocalRandom.current().nextInt(window.getLength()));
+        }
+        final var leastLoad = Math.min(
+                plannedPerMinute.minLoad(firstFrom, firstTo),
+                plannedPerMinute.minLoad(secondFrom, secondTo)
+        );
+        final var firstCount = plannedPerMinute.countMinLoad(leastLoad, firstFrom, firstTo);
+        final var secondCount = plannedPerMinute.countMinLoad(leastLoad, secondFrom, secondTo);
+        // ties are broken randomly
+        final var n = ThreadLocalRandom.current().nextInt(firstCount + secondCount);
+        final var index = n < firstCount
+                ? plannedPerMinute.nthMinLoadMinute(leastLoad, n, firstFrom, firstTo)
+                : plannedPerMinute.nthMinLoadMinute(leastLoad, n - firstCount, secondFrom, secondTo);
+        if (leastLoad >= capacityPerMinute) {
+            overCapacityCounter.increment();
+        }
+        plannedPerMinute.increment(index);
+        return firstMinute + index;
+    }
+
+    private int histogramIndex(final long epochMinute) {
+        return (int) Math.max(0, Math.min(HISTOGRAM_MINUTES, epochMinute - firstMinute));
+    }
+
+    /**
+     * Returns the number of notifications planned in each minute of the next 3
+     * days, minutes without any planned notification excluded.
+     */
+    public synchronized LoadCurve loadCurve() {
+        refreshIfStale();
+        final var curve = new TreeMap<Instant, Integer>();
+        var peak = 0;
+        for (var i = 0; i < HISTOGRAM_MINUTES; i++) {
+            final var planned = plannedPerMinute.get(i);
+            if (planned != 0) {
+                curve.put(Instant.ofEpochSecond((firstMinute + i) * 60), planned);
+                peak = Math.max(peak, planned);
+            }
+        }
+        return new LoadCurve(capacityPerMinute, peak, curve);
+    }
+
+    private void refreshIfStale() {
+        final var now = Instant.now();
+        if (now.isBefore(nextRefresh)) {
+            return;
+        }
+        final var currentMinute = now.getEpochSecond() / 60;
+        final var counts = pushInfoRepository.countPlannedPushesPerMinute(
+                Instant.ofEpochSecond(currentMinute * 60),
+                Instant.ofEpochSecond((currentMinute + HISTOGRAM_MINUTES) * 60)
+        );
+        firstMinute = currentMinute;
+        plannedPerMinute.setAll(i -> counts.getOrDefault(currentMinute + i, 0));
+        nextRefresh = now.plus(refreshInterval);
+    }
+
+    @Value
+    public static class LoadCurve {
+
+        int capacityPerMinute;
+
+        int peakPerMinute;
+
+        Map<Instant, Integer> plannedPerMinute;
+    }
+}
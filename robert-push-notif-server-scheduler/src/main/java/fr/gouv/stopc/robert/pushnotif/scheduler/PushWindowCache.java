@@ -0,0 +1,117 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import lombok.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Caches, for each timezone, tomorrow's push window as epoch minute bounds.
+ * <p>
+ * A window is computed on the first draw for its timezone and is kept until the
+ * next local midnight, drawing a random next push instant is then a random
+ * offset added to the window bounds.
+ */
+@Component
+public class PushWindowCache {
+
+    private final int minPushHour;
+
+    private final int maxPushHour;
+
+    private final Map<String, PushWindow> windows = new ConcurrentHashMap<>();
+
+    public PushWindowCache(final RobertPushServerProperties robertPushServerProperties) {
+        this.minPushHour = robertPushServerProperties.getMinPushHour();
+        this.maxPushHour = robertPushServerProperties.getMaxPushHour();
+    }
+
+    /**
+     * Returns a random instant, truncated to the minute, in tomorrow's push window
+     * of the given timezone.
+     */
+    public Instant randomPushInstant(final String timezone) {
+        return window(timezone).randomInstant();
+    }
+
+    /**
+     * Returns tomorrow's push window of the given timezone.
+     */
+    PushWindow window(final String timezone) {
+        final var now = Instant.now();
+        var window = windows.get(timezone);
+        if (window == null || now.getEpochSecond() / 60 >= window.getValidUntilEpochMinute()) {
+            window = PushWindow.tomorrow(minPushHour, maxPushHour, ZoneId.of(timezone), now);
+            windows.put(timezone, window);
+        }
+        return window;
+    }
+
+    /**
+     * The minutes of tomorrow between the hour bounds, in a given timezone, made of
+     * one or two ranges of epoch minutes.
+     * <p>
+     * minPushHour can be greater than maxPushHour: the window is then made of
+     * tomorrow's hours from midnight to maxPushHour and from minPushHour to the end
+     * of the day. For instance min=20 and max=7 means notifications are sent
+     * tomorrow before 6:59 or after 20:00.
+     * <p>
+     * Bounds are computed with the timezone rules of tomorrow, a window containing
+     * a daylight saving time transition is one hour shorter or longer.
+     */
+    @Value
+    static class PushWindow {
+
+        long validUntilEpochMinute;
+
+        long firstStartEpochMinute;
+
+        int firstLength;
+
+        long secondStartEpochMinute;
+
+        int length;
+
+        static PushWindow tomorrow(final int minPushHour, final int maxPushHour, final ZoneId timezone,
+                final Instant now) {
+            final var tomorrow = LocalDate.ofInstant(now, timezone).plusDays(1);
+            final var startOfTomorrow = startOfDay(tomorrow, timezone);
+            final var startOfAfterTomorrow = startOfDay(tomorrow.plusDays(1), timezone);
+            final var min = tomorrow.atTime(minPushHour, 0).atZone(timezone).toEpochSecond() / 60;
+            final var max = tomorrow.atTime(maxPushHour, 0).atZone(timezone).toEpochSecond() / 60;
+            if (maxPushHour < minPushHour) {
+                final var firstLength = (int) (max - startOfTomorrow);
+                return new PushWindow(
+                        startOfTomorrow, startOfTomorrow, firstLength, min,
+                        firstLength + (int) (startOfAfterTomorrow - min)
+                );
+            }
+            final var length = (int) Math.max(0, max - min);
+            return new PushWindow(startOfTomorrow, min, length, min, length);
+        }
+
+        private static long startOfDay(final LocalDate date, final ZoneId timezone) {
+            return date.atStartOfDay(timezone).toEpochSecond() / 60;
+        }
+
+        Instant randomInstant() {
+            return Instant.ofEpochSecond(epochMinuteAt(ThreadLocalRandom.current().nextInt(length)) * 60);
+        }
+
+        /**
+         * Returns the epoch minute of the window at the given offset, between 0 and
+         * {@link #getLength()} excluded.
+         */
+        long epochMinuteAt(final int offset) {
+            return offset < firstLength
+                    ? firstStartEpochMinute + offset
+                    : secondStartEpochMinute + offset - firstLength;
+        }
+    }
+}
@@ -1,119 +1,260 @@
 package fr.gouv.stopc.robert.pushnotif.scheduler;
 
-import com.eatthepath.pushy.apns.DeliveryPriority;
-import com.eatthepath.pushy.apns.PushType;
-import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
-import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.WakeUpNotificationFactory;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsOperations;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsServerCoordinates;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsResponseHandler;
 import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
 import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushOutcomeBuffer;
 import fr.gouv.stopc.robert.pushnotif.scheduler.repository.model.PushInfo;
 import io.micrometer.core.annotation.Counted;
 import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
 
 import static com.eatthepath.pushy.apns.util.SimpleApnsPushNotification.DEFAULT_EXPIRATION_PERIOD;
-import static com.eatthepath.pushy.apns.util.TokenUtil.sanitizeTokenString;
-import static java.time.temporal.ChronoUnit.MINUTES;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.CLAIM;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.MINUTE_BUCKET;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.SELECT_AND_UPDATE;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.TIMING_WHEEL;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.joining;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class Scheduler {
 
     private final PushInfoRepository pushInfoRepository;
 
+    private final PushOutcomeBuffer pushOutcomeBuffer;
+
+    private final SchedulerLeaderElection schedulerLeaderElection;
+
+    private final PushSlotAllocator pushSlotAllocator;
+
+    private final PushPrefetcher pushPrefetcher;
+
+    private final PushMinuteBuckets pushMinuteBuckets;
+
     private final RobertPushServerProperties robertPushServerProperties;
 
     private final ApnsOperations<FailoverApnsResponseHandler> apnsTemplate;
 
-    @Scheduled(fixedDelayString = "${robert.push.server.scheduler.delay-in-ms}")
+    private final DistributionSummary pendingAtDeadlineSummary;
+
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    public Scheduler(final PushInfoRepository pushInfoRepository,
+            final PushOutcomeBuffer pushOutcomeBuffer,
+            final SchedulerLeaderElection schedulerLeaderElection,
+            final PushSlotAllocator pushSlotAllocator,
+            final PushPrefetcher pushPrefetcher,
+            final PushMinuteBuckets pushMinuteBuckets,
+            final RobertPushServerProperties robertPushServerProperties,
+            final ApnsOperations<FailoverApnsResponseHandler> apnsTemplate,
+            final MeterRegistry meterRegistry) {
+        this.pushInfoRepository = pushInfoRepository;
+        this.pushOutcomeBuffer = pushOutcomeBuffer;
+        this.schedulerLeaderElection = schedulerLeaderElection;
+        this.pushSlotAllocator = pushSlotAllocator;
+        this.pushPrefetcher = pushPrefetcher;
+        this.pushMinuteBuckets = pushMinuteBuckets;
+        this.robertPushServerProperties = robertPushServerProperties;
+        this.apnsTemplate = apnsTemplate;
+        this.pendingAtDeadlineSummary = DistributionSummary.builder("push.notifier.pending.at.deadline")
+                .description("notifications still pending when the batch termination grace time elapsed")
+                .register(meterRegistry);
+        TimeGauge.builder("push.notifier.lag", lagMillis, MILLISECONDS, AtomicLong::get)
+                .description(
+                        "greatest delay between the due date of a notification and its sending during the last run sending notifications, or the last busy period of the streaming pipeline"
+                )
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends the due notifications, scheduled by
+     * {@link fr.gouv.stopc.robert.pushnotif.scheduler.configuration.SchedulingConfiguration}.
+     */
     @Timed(value = "push.notifier.duration", description = "on going export duration", longTask = true)
     @Counted(value = "push.notifier.calls", description = "count each time the scheduler sending notifications is triggered")
     public void sendNotifications() {
-        pushInfoRepository.forEachNotificationToBeSent(pushInfo -> {
-            // set the next planned push to be sure the notification could not be sent 2
-            // times the same day
-            updateNextPlannedPush(pushInfo);
-            final var notification = buildWakeUpNotification(pushInfo.getToken());
-            apnsTemplate.sendNotification(notification, new WakeUpDeviceResponseHandler(pushInfo));
+        if (!schedulerLeaderElection.acquireLeadership()) {
+            log.debug("Another scheduler instance is the leader, skipping notifications");
+            return;
+        }
+        final var runMaxLagMillis = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        final var notificationFactory = new WakeUpNotificationFactory(
+                robertPushServerProperties.getApns().getTopic(),
+                Instant.now().plus(DEFAULT_EXPIRATION_PERIOD)
+        );
+        final var mode = robertPushServerProperties.getScheduler().getMode();
+        if (mode == CLAIM) {
+            claimAndSendNotifications(notificationFactory, runMaxLagMillis);
+        } else if (mode == TIMING_WHEEL) {
+            sendPrefetchedNotifications(notificationFactory, runMaxLagMillis);
+        } else if (mode == MINUTE_BUCKET) {
+            sendMinuteBucketNotifications(notificationFactory, runMaxLagMillis);
+        } else if (mode == SELECT_AND_UPDATE) {
+            readAndSendNotifications(notificationFactory, runMaxLagMillis);
+        }
+        publishLag(runMaxLagMillis.get());
+
+        final var graceTime = robertPushServerProperties.getBatchTerminationGraceTime();
+        final var pendingNotifications = apnsTemplate.waitUntilNoActivity(graceTime);
+        if (pendingNotifications != 0) {
+            log.warn("{} notifications are still pending after {}", pendingNotifications, graceTime);
+            pendingAtDeadlineSummary.record(pendingNotifications);
+        }
+        pushOutcomeBuffer.flush();
+    }
+
+    /**
+     * Claims due notifications chunk by chunk: each chunk is rescheduled to
+     * tomorrow by a single statement before being sent.
+     */
+    private void claimAndSendNotifications(final WakeUpNotificationFactory notificationFactory,
+            final LongAccumulator runMaxLagMillis) {
+        final var chunkSize = robertPushServerProperties.getScheduler().getClaimChunkSize();
+        final var minPushHour = robertPushServerProperties.getMinPushHour();
+        final var pushWindowHours = durationBetweenHours(minPushHour, robertPushServerProperties.getMaxPushHour());
+        List<PushInfo> claimedPushInfos;
+        do {
+            claimedPushInfos = pushInfoRepository.claimNotificationsToBeSent(chunkSize, minPushHour, pushWindowHours);
+            claimedPushInfos.forEach(
+                    pushInfo -> runMaxLagMillis.accumulate(sendWakeUpNotification(notificationFactory, pushInfo))
+            );
+        } while (claimedPushInfos.size() == chunkSize);
+    }
+
+    /**
+     * Reads due notifications chunk by chunk, each chunk starting after the last
+     * notification of the previous one, and reschedules each notification before
+     * sending it.
+     */
+    private void readAndSendNotifications(final WakeUpNotificationFactory notificationFactory,
+            final LongAccumulator runMaxLagMillis) {
+        final var chunkSize = robertPushServerProperties.getScheduler().getReadChunkSize();
+        List<PushInfo> pushInfos;
+        PushInfo lastPushInfo = null;
+        do {
+            pushInfos = pushInfoRepository.findNotificationsToBeSent(lastPushInfo, chunkSize);
+            pushInfos.forEach(pushInfo -> {
+                // set the next planned push to be sure the notification could not be sent 2
+                // times the same day
+                updateNextPlannedPush(pushInfo);
+                runMaxLagMillis.accumulate(sendWakeUpNotification(notificationFactory, pushInfo));
+            });
+            if (!pushInfos.isEmpty()) {
+                lastPushInfo = pushInfos.get(pushInfos.size() - 1);
+            }
+        } while (pushInfos.size() == chunkSize);
+    }
+
+    /**
+     * Sends the notifications of the timing wheel due at the current minute, each
+     * one being rescheduled before being sent unless it has been unregistered or
+     * rescheduled since it has been prefetched.
+     */
+    private void sendPrefetchedNotifications(final WakeUpNotificationFactory notificationFactory,
+            final LongAccumulator runMaxLagMillis) {
+        pushPrefetcher.pollDue().forEach(pushInfo -> {
+            final var nextPushDate = pushSlotAllocator.nextPushInstant(pushInfo.getTimezone());
+            if (pushInfoRepository
+                    .rescheduleIfStillPlannedAt(pushInfo.getId(), pushInfo.getNextPlannedPush(), nextPushDate)) {
+                runMaxLagMillis.accumulate(sendWakeUpNotification(notificationFactory, pushInfo));
+            }
         });
+    }
+
+    /**
+     * Assigns a push minute to the new notifications, then sends the notifications
+     * of the due minute buckets chunk by chunk, without rescheduling them.
+     */
+    private void sendMinuteBucketNotifications(final WakeUpNotificationFactory notificationFactory,
+            final LongAccumulator runMaxLagMillis) {
+        final var chunkSize = robertPushServerProperties.getScheduler().getReadChunkSize();
+        final var minPushHour = robertPushServerProperties.getMinPushHour();
+        final var windowMinutes = durationBetweenHours(minPushHour, robertPushServerProperties.getMaxPushHour()) * 60;
+        int assignedCount;
+        do {
+            assignedCount = pushInfoRepository.assignPushMinutes(minPushHour, windowMinutes, chunkSize);
+        } while (assignedCount == chunkSize);
 
-        apnsTemplate.waitUntilNoActivity(robertPushServerProperties.getBatchTerminationGraceTime());
+        final var buckets = pushMinuteBuckets.pollDue();
+        final var timezones = buckets.stream().map(PushMinuteBuckets.Bucket::getTimezone).toArray(String[]::new);
+        final var minutesOfDay = buckets.stream().map(PushMinuteBuckets.Bucket::getMinuteOfDay)
+                .toArray(Integer[]::new);
+        final var dueMinutes = buckets.stream().map(PushMinuteBuckets.Bucket::getDueMinute).toArray(Long[]::new);
+        List<PushInfo> pushInfos;
+        var lastId = 0L;
+        do {
+            pushInfos = pushInfoRepository
+                    .findNotificationsInMinuteBuckets(timezones, minutesOfDay, dueMinutes, lastId, chunkSize);
+            pushInfos.forEach(
+                    pushInfo -> runMaxLagMillis.accumulate(sendWakeUpNotification(notificationFactory, pushInfo))
+            );
+            if (!pushInfos.isEmpty()) {
+                lastId = pushInfos.get(pushInfos.size() - 1).getId();
+            }
+        } while (pushInfos.size() == chunkSize);
     }
 
     /**
-     * Updates the registered token with a new notification instant set to tomorrow.
+     * Sends the notification, its outcome is written by the
+     * {@link PushOutcomeBuffer}.
+     *
+     * @return the delay in milliseconds between the due date of the notification
+     *         and its sending
      */
-    private void updateNextPlannedPush(final PushInfo pushInfo) {
-        final var nextPushDate = generatePushDateTomorrowBetween(
-                robertPushServerProperties.getMinPushHour(),
-                robertPushServerProperties.getMaxPushHour(),
-                ZoneId.of(pushInfo.getTimezone())
-        );
-        pushInfoRepository.updateNextPlannedPushDate(pushInfo.getId(), nextPushDate);
+    public long sendWakeUpNotification(final WakeUpNotificationFactory notificationFactory,
+            final PushInfo pushInfo) {
+        final var lag = System.currentTimeMillis() - pushInfo.getNextPlannedPush().toEpochMilli();
+        final var notification = notificationFactory.build(pushInfo.getToken());
+        apnsTemplate.sendNotification(notification, new WakeUpDeviceResponseHandler(pushInfo));
+        return lag;
     }
 
     /**
-     * Builds the {@link com.eatthepath.pushy.apns.ApnsPushNotification} to be sent
-     * to the Apple server.
+     * Exports the greatest lag of the notifications sent by a caller, ignored when
+     * it is {@link Long#MIN_VALUE} because no notification has been sent.
      */
-    private SimpleApnsPushNotification buildWakeUpNotification(final String apnsToken) {
-        final var payload = new SimpleApnsPayloadBuilder()
-                .setContentAvailable(true)
-                .setBadgeNumber(0)
-                .build();
-
-        return new SimpleApnsPushNotification(
-                sanitizeTokenString(apnsToken).toLowerCase(),
-                robertPushServerProperties.getApns().getTopic(),
-                payload,
-                Instant.now().plus(DEFAULT_EXPIRATION_PERIOD),
-                DeliveryPriority.IMMEDIATE,
-                PushType.BACKGROUND
-        );
+    public void publishLag(final long maxLagMillis) {
+        if (maxLagMillis != Long.MIN_VALUE) {
+            lagMillis.set(maxLagMillis);
+        }
     }
 
     /**
-     * Generates a random instant tomorrow between the given hour bounds for the
-     * specified timezone.
-     * <p>
-     * minPushHour can be greater than maxPushHour: its means notification period
-     * starts this evening and ends tommorrow. For instance min=20 and max=7 means
-     * notifications are send between today at 20:00 and tomorrow at 6:59.
+     * Updates the registered token with a new notification instant set to tomorrow.
      */
-    static Instant generatePushDateTomorrowBetween(final int minPushHour, final int maxPushHour,
-            final ZoneId timezone) {
-        final var random = ThreadLocalRandom.current();
-        final int durationBetweenHours;
+    private void updateNextPlannedPush(final PushInfo pushInfo) {
+        final var nextPushDate = pushSlotAllocator.nextPushInstant(pushInfo.getTimezone());
+        pushInfoRepository.updateNextPlannedPushDate(pushInfo.getId(), nextPushDate);
+    }
+
+    static int durationBetweenHours(final int minPushHour, final int maxPushHour) {
         // In case config requires "between 6pm and 4am" which translates in minPushHour
         // = 18 and maxPushHour = 4
         if (maxPushHour < minPushHour) {
-            durationBetweenHours = 24 - minPushHour + maxPushHour;
+            return 24 - minPushHour + maxPushHour;
         } else {
-            durationBetweenHours = maxPushHour - minPushHour;
+            return maxPushHour - minPushHour;
         }
-        return ZonedDateTime.now(timezone).plusDays(1)
-                .withHour((random.nextInt(durationBetweenHours) + minPushHour) % 24)
-                .withMinute(random.nextInt(60))
-                .toInstant()
-                .truncatedTo(MINUTES);
     }
 
     /**
-     * Handles notification request response.
+     * Handles notification request response by buffering its outcome.
      */
     @RequiredArgsConstructor
     private class WakeUpDeviceResponseHandler implements FailoverApnsResponseHandler {
@@ -121,25 +262,34 @@ public class Scheduler {
         private final PushInfo pushInfo;
 
         @Override
-        public void onSuccess() {
-            pushInfoRepository.updateSuccessfulPushSent(pushInfo.getId());
+        public void onSuccess(final ApnsServerCoordinates server) {
+            pushOutcomeBuffer.addSuccess(pushInfo.getId(), server.toString());
         }
 
         @Override
         public void onRejection(final List<RejectionReason> reasons) {
-
-            pushInfoRepository.updateFailure(pushInfo.getId(), concat(reasons));
+            pushOutcomeBuffer.addFailure(pushInfo.getId(), concat(reasons));
         }
 
         @Override
         public void onError(final Throwable cause) {
-            pushInfoRepository.updateFailure(pushInfo.getId(), cause.getMessage());
+            pushOutcomeBuffer.addFailure(pushInfo.getId(), cause.getMessage());
         }
 
         @Override
         public void onInactive(final List<RejectionReason> reasons) {
-            pushInfoRepository.updateFailure(pushInfo.getId(), concat(reasons));
-            pushInfoRepository.disable(pushInfo.getId());
+            pushOutcomeBuffer.addInactive(pushInfo.getId(), concat(reasons));
+        }
+
+        @Override
+        public void onNotAttempted(final List<RejectionReason> reasons) {
+            final var retryDelay = robertPushServerProperties.getCircuitBreaker().getWaitDurationInOpenState();
+            pushOutcomeBuffer.addRetry(pushInfo.getId(), Instant.now().plus(retryDelay));
+        }
+
+        @Override
+        public ApnsServerCoordinates getPreferredServer() {
+            return ApnsServerCoordinates.parse(pushInfo.getLastAcceptingServer());
         }
 
         private String concat(List<RejectionReason> reasons) {
@@ -0,0 +1,138 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Elects the scheduler instance allowed to send notifications using a Postgres
+ * session level advisory lock.
+ * <p>
+ * The lock is held by a dedicated connection taken out of the pool for as long
+ * as the instance is the leader: if this connection is lost, the lock is
+ * released by the database and a standby instance takes over at its next
+ * scheduler run. Standby instances keep their APNs clients so that they are
+ * ready to send as soon as they are elected.
+ */
+@Slf4j
+@Component
+public class SchedulerLeaderElection {
+
+    private final DataSource dataSource;
+
+    private final RobertPushServerProperties.LeaderElection properties;
+
+    private final AtomicReference<Duration> lastTakeoverLatency = new AtomicReference<>(Duration.ZERO);
+
+    private Connection lockConnection;
+
+    private Instant lastFailedAttempt;
+
+    public SchedulerLeaderElection(final DataSource dataSource,
+            final RobertPushServerProperties robertPushServerProperties,
+            final MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.properties = robertPushServerProperties.getLeaderElection();
+
+        Gauge.builder("push.scheduler.leader", this, election -> election.isLeader() ? 1 : 0)
+                .description("1 when this instance holds the scheduler leadership lock")
+                .register(meterRegistry);
+        Gauge.builder("push.scheduler.standby", this, election -> election.isStandby() ? 1 : 0)
+                .description("1 when this instance waits for the scheduler leadership lock")
+                .register(meterRegistry);
+        Gauge.builder("push.scheduler.leader.takeover.latency", lastTakeoverLatency, d -> d.get().toMillis())
+                .description(
+                        "time between the last failed attempt to get the leadership lock and its acquisition"
+                )
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Tries to become or to remain the leader.
+     *
+     * @return true when this instance is the leader or when leader election is
+     *         disabled
+     */
+    public synchronized boolean acquireLeadership() {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        if (lockConnection != null) {
+            if (isValid(lockConnection)) {
+                return true;
+            }
+            log.warn("Connection holding the scheduler leadership lock is lost");
+            releaseLeadership();
+        }
+        try {
+            final var connection = dataSource.getConnection();
+            if (tryAdvisoryLock(connection)) {
+                lockConnection = connection;
+                if (lastFailedAttempt != null) {
+                    lastTakeoverLatency.set(Duration.between(lastFailedAttempt, Instant.now()));
+                }
+                log.info("This instance is now the scheduler leader");
+                return true;
+            }
+            connection.close();
+        } catch (final SQLException e) {
+            log.error("Unable to acquire the scheduler leadership lock", e);
+        }
+        lastFailedAttempt = Instant.now();
+        return false;
+    }
+
+    public synchronized boolean isLeader() {
+        return properties.isEnabled() && lockConnection != null;
+    }
+
+    public synchronized boolean isStandby() {
+        return properties.isEnabled() && lockConnection == null;
+    }
+
+    @PreDestroy
+    public synchronized void releaseLeadership() {
+        if (lockConnection != null) {
+            try {
+                // closing the pooled connection doesn't close the session
+                try (final var statement = lockConnection.prepareStatement("select pg_advisory_unlock(?)")) {
+                    statement.setLong(1, properties.getLockId());
+                    statement.execute();
+                }
+                lockConnection.close();
+            } catch (final SQLException e) {
+                log.warn("Unable to release the scheduler leadership lock: {}", e.getMessage());
+            }
+            lockConnection = null;
+        }
+    }
+
+    private boolean tryAdvisoryLock(final Connection connection) throws SQLException {
+        try (final var statement = connection.prepareStatement("select pg_try_advisory_lock(?)")) {
+            statement.setLong(1, properties.getLockId());
+            try (final var resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private static boolean isValid(final Connection connection) {
+        try {
+            return connection.isValid(1);
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel with one minute slots, holding elements due in
+ * the next 24 hours.
+ * <p>
+ * Elements due in the current hour are held by the 60 minute slots of the first
+ * level, later elements by the 24 hour slots of the second level. The elements
+ * of an hour slot are moved to the minute slots when the hour starts. Adding
+ * and polling an element are constant time operations. Elements already due
+ * when they are added are returned by the next poll.
+ * <p>
+ * Minutes are expressed as epoch minutes. This class is not thread-safe.
+ */
+class TimingWheel<T> {
+
+    static final int MINUTES_PER_HOUR = 60;
+
+    static final int HOURS_PER_DAY = 24;
+
+    static final long MINUTES_PER_DAY = MINUTES_PER_HOUR * HOURS_PER_DAY;
+
+    private final List<List<Entry<T>>> minuteSlots = newSlots(MINUTES_PER_HOUR);
+
+    private final List<List<Entry<T>>> hourSlots = newSlots(HOURS_PER_DAY);
+
+    private List<T> overdue = new ArrayList<>();
+
+    /**
+     * The last minute polled, elements due at or before this minute are overdue.
+     */
+    private long currentMinute;
+
+    private int size;
+
+    TimingWheel(final long currentMinute) {
+        this.currentMinute = currentMinute;
+    }
+
+    private static <T> List<List<Entry<T>>> newSlots(final int count) {
+        final var slots = new ArrayList<List<Entry<T>>>(count);
+        for (var i = 0; i < count; i++) {
+            slots.add(new ArrayList<>());
+        }
+        return slots;
+    }
+
+    /**
+     * Adds an element due at the given epoch minute.
+     *
+     * @return false when the element is due 24 hours or more after the current
+     *         minute and can't be held
+     */
+    boolean add(final long dueMinute, final T element) {
+        final var delay = dueMinute - currentMinute;
+        if (delay <= 0) {
+            overdue.add(element);
+        } else if (dueMinute / MINUTES_PER_HOUR == currentMinute / MINUTES_PER_HOUR) {
+            minuteSlots.get(minuteIndex(dueMinute)).add(new Entry<>(dueMinute, element));
+        } else if (delay < MINUTES_PER_DAY) {
+            hourSlots.get(hourIndex(dueMinute)).add(new Entry<>(dueMinute, element));
+        } else {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given epoch minute and returns the elements due at
+     * or before it.
+     */
+    List<T> pollUntil(final long minute) {
+        final var due = overdue;
+        overdue = new ArrayList<>();
+        if (minute - currentMinute >= MINUTES_PER_DAY) {
+            minuteSlots.forEach(slot -> drainTo(slot, due));
+            hourSlots.forEach(slot -> drainTo(slot, due));
+            currentMinute = minute;
+        }
+        while (currentMinute < minute) {
+            currentMinute++;
+            if (currentMinute % MINUTES_PER_HOUR == 0) {
+                final var hourSlot = hourSlots.get(hourIndex(currentMinute));
+                hourSlot.forEach(entry -> minuteSlots.get(minuteIndex(entry.dueMinute)).add(entry));
+                hourSlot.clear();
+            }
+            drainTo(minuteSlots.get(minuteIndex(currentMinute)), due);
+        }
+        size -= due.size();
+        return due;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the last minute polled.
+     */
+    long currentMinute() {
+        return currentMinute;
+    }
+
+    /**
+     * Removes all the elements.
+     */
+    void clear() {
+        minuteSlots.forEach(List::clear);
+        hourSlots.forEach(List::clear);
+        overdue.clear();
+        size = 0;
+    }
+
+    private static int minuteIndex(final long minute) {
+        return (int) (minute % MINUTES_PER_HOUR);
+    }
+
+    private static int hourIndex(final long minute) {
+        return (int) (minute / MINUTES_PER_HOUR % HOURS_PER_DAY);
+    }
+
+    private static <T> void drainTo(final List<Entry<T>> slot, final List<T> due) {
+        slot.forEach(entry -> due.add(entry.element));
+        slot.clear();
+    }
+
+    @RequiredArgsConstructor
+    private static class Entry<T> {
+
+        private final long dueMinute;
+
+        private final T element;
+    }
+}
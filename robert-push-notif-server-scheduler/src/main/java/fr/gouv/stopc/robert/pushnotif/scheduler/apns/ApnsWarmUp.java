@@ -0,0 +1,143 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns;
+
+import com.eatthepath.pushy.apns.DeliveryPriority;
+import com.eatthepath.pushy.apns.PushType;
+import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsOperations;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsResponseHandler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Opens the connections to every APNs server when the application starts, so
+ * that the first notifications do not pay the TLS and HTTP/2 handshakes and the
+ * signature of the authentication token.
+ * <p>
+ * Pushy only opens connections to send notifications: the warm-up sends a probe
+ * notification per connection, a background notification to the all-zero device
+ * token. APNs servers reject it with BadDeviceToken, the rejections are counted
+ * by the pushy metrics and logged by Apple, which is why the warm-up is
+ * disabled by default.
+ * <p>
+ * The warm-up runs once the web server is started and before the scheduled
+ * tasks are, the application is reported out of service by this health
+ * indicator until it completes or its timeout elapses. The time to ready is
+ * recorded by the "pushy.connections.warmup" timer.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ApnsWarmUp implements SmartLifecycle, HealthIndicator {
+
+    /**
+     * Device token of the probe notification, rejected by the APNs servers with
+     * BadDeviceToken.
+     */
+    private static final String PROBE_TOKEN = "0".repeat(64);
+
+    private final ApnsOperations<FailoverApnsResponseHandler> apnsTemplate;
+
+    private final RobertPushServerProperties robertPushServerProperties;
+
+    private final MeterRegistry meterRegistry;
+
+    private volatile Outcome outcome;
+
+    private volatile Duration timeToReady;
+
+    @Override
+    public void start() {
+        final var warmUpProperties = robertPushServerProperties.getApns().getWarmUp();
+        if (!warmUpProperties.isEnabled()) {
+            timeToReady = Duration.ZERO;
+            outcome = Outcome.DISABLED;
+            return;
+        }
+        log.info("Opening connections to APNs servers");
+        final var start = System.nanoTime();
+        var warmUpOutcome = Outcome.READY;
+        try {
+            apnsTemplate.warmUp(buildProbeNotification())
+                    .get(warmUpProperties.getTimeout().toNanos(), NANOSECONDS);
+        } catch (final TimeoutException e) {
+            log.warn("Connections to APNs servers are not ready after {}", warmUpProperties.getTimeout());
+            warmUpOutcome = Outcome.TIMEOUT;
+        } catch (final ExecutionException e) {
+            log.warn("Unable to open connections to APNs servers", e.getCause());
+            warmUpOutcome = Outcome.FAILED;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warmUpOutcome = Outcome.FAILED;
+        }
+        final var elapsedNanos = System.nanoTime() - start;
+        Timer.builder("pushy.connections.warmup")
+                .description("time to open the connections to APNs servers at startup")
+                .tag("outcome", warmUpOutcome.name())
+                .register(meterRegistry)
+                .record(elapsedNanos, NANOSECONDS);
+        timeToReady = Duration.ofNanos(elapsedNanos);
+        outcome = warmUpOutcome;
+        log.info("APNs connections warm-up ended with outcome {} after {}", warmUpOutcome, timeToReady);
+    }
+
+    private SimpleApnsPushNotification buildProbeNotification() {
+        final var payload = new SimpleApnsPayloadBuilder()
+                .setContentAvailable(true)
+                .build();
+        return new SimpleApnsPushNotification(
+                PROBE_TOKEN,
+                robertPushServerProperties.getApns().getTopic(),
+                payload,
+                Instant.now(),
+                DeliveryPriority.CONSERVE_POWER,
+                PushType.BACKGROUND
+        );
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return outcome != null;
+    }
+
+    /**
+     * Reports the application out of service until the warm-up ends. A warm-up
+     * which failed or timed out still reports the application up: connections are
+     * then opened by the first notifications.
+     */
+    @Override
+    public Health health() {
+        if (outcome == null) {
+            return Health.outOfService().build();
+        }
+        return Health.up()
+                .withDetail("outcome", outcome.name())
+                .withDetail("timeToReady", timeToReady)
+                .build();
+    }
+
+    private enum Outcome {
+        DISABLED,
+        READY,
+        TIMEOUT,
+        FAILED
+    }
+}
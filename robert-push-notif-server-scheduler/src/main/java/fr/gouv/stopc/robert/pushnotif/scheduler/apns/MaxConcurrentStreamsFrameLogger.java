@@ -0,0 +1,52 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsServerCoordinates;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.logging.LogLevel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.netty.handler.codec.http2.Http2FrameLogger.Direction.INBOUND;
+
+/**
+ * An HTTP/2 frame logger recording the maximum number of concurrent streams
+ * allowed on each connection by the SETTINGS frames received from the APNs
+ * server.
+ * <p>
+ * The last advertised limit is exported by the
+ * "pushy.connections.max.concurrent.streams" gauge. Frames are still logged at
+ * the TRACE level of this class.
+ */
+public class MaxConcurrentStreamsFrameLogger extends Http2FrameLogger {
+
+    /**
+     * The name of a {@link io.micrometer.core.instrument.Gauge} that measures the
+     * maximum number of concurrent streams the APNs server allows on a connection.
+     */
+    public static final String MAX_CONCURRENT_STREAMS_GAUGE_NAME = "pushy.connections.max.concurrent.streams";
+
+    private final AtomicLong maxConcurrentStreams = new AtomicLong(0);
+
+    public MaxConcurrentStreamsFrameLogger(final MeterRegistry meterRegistry,
+            final ApnsServerCoordinates serverCoordinates) {
+        super(LogLevel.TRACE, MaxConcurrentStreamsFrameLogger.class);
+        final var tags = Tags.of(
+                "host", serverCoordinates.getHost(),
+                "port", String.valueOf(serverCoordinates.getPort())
+        );
+        meterRegistry.gauge(MAX_CONCURRENT_STREAMS_GAUGE_NAME, tags, maxConcurrentStreams);
+    }
+
+    @Override
+    public void logSettings(final Direction direction, final ChannelHandlerContext ctx,
+            final Http2Settings settings) {
+        if (direction == INBOUND && settings.maxConcurrentStreams() != null) {
+            maxConcurrentStreams.set(settings.maxConcurrentStreams());
+        }
+        super.logSettings(direction, ctx, settings);
+    }
+}
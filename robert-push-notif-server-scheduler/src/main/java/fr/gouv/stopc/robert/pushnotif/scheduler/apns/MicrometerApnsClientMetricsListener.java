@@ -90,6 +90,13 @@ public class MicrometerApnsClientMetricsListener implements ApnsClientMetricsLis
         meterRegistry.gauge(OPEN_CONNECTIONS_GAUGE_NAME, tags, openConnections);
     }
 
+    /**
+     * Returns the number of open connections in the client's connection pool.
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
     /**
      * Records a failed attempt to send a notification and updates metrics
      * accordingly.
@@ -0,0 +1,42 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns;
+
+import com.eatthepath.pushy.apns.DeliveryPriority;
+import com.eatthepath.pushy.apns.PushType;
+import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.database.ApnsTokenCodec;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Builds the wake-up notifications of a scheduler run: the payload is
+ * serialized once for all notifications, and the topic and expiration are
+ * shared by the notifications of the run, only the device token varies.
+ * <p>
+ * Tokens are validated when they are registered and stored as bytes, they are
+ * only encoded to their lower case hexadecimal representation.
+ */
+@RequiredArgsConstructor
+public class WakeUpNotificationFactory {
+
+    private static final String WAKE_UP_PAYLOAD = new SimpleApnsPayloadBuilder()
+            .setContentAvailable(true)
+            .setBadgeNumber(0)
+            .build();
+
+    private final String topic;
+
+    private final Instant expiration;
+
+    public SimpleApnsPushNotification build(final byte[] apnsToken) {
+        return new SimpleApnsPushNotification(
+                ApnsTokenCodec.toHexString(apnsToken),
+                topic,
+                WAKE_UP_PAYLOAD,
+                expiration,
+                DeliveryPriority.IMMEDIATE,
+                PushType.BACKGROUND
+        );
+    }
+}
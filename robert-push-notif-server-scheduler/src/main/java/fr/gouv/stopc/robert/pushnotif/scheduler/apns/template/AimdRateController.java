@@ -0,0 +1,84 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import lombok.Builder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes a notification rate with an additive increase / multiplicative
+ * decrease policy: the rate is increased by {@code increaseStep} after each
+ * period where the rate limited the notifications sent, with responses and
+ * without congestion signal, and multiplied by {@code decreaseFactor} after a
+ * period with a congestion signal, either a response latency above
+ * {@code latencySlo}, a rejection with one of the
+ * {@code congestionRejectionReasons} or an error.
+ * <p>
+ * The rate is not increased under a light load: a rate which was never reached
+ * tells nothing about the capacity of the server.
+ */
+@Builder
+public class AimdRateController {
+
+    private final int floor;
+
+    private final int ceiling;
+
+    private final int increaseStep;
+
+    private final double decreaseFactor;
+
+    private final Duration latencySlo;
+
+    private final List<RejectionReason> congestionRejectionReasons;
+
+    private final AtomicBoolean congested = new AtomicBoolean(false);
+
+    private final AtomicLong responses = new AtomicLong(0);
+
+    /**
+     * Records a response received after {@code latencyNanos}.
+     *
+     * @param rejectionReason the rejection reason or {@link RejectionReason#NONE}
+     *                        when the notification is accepted
+     */
+    public void onResponse(final long latencyNanos, final RejectionReason rejectionReason) {
+        responses.incrementAndGet();
+        if (latencyNanos > latencySlo.toNanos() || congestionRejectionReasons.contains(rejectionReason)) {
+            congested.set(true);
+        }
+    }
+
+    /**
+     * Records a notification which failed before reaching the server, such as a
+     * write timeout or a closed connection.
+     */
+    public void onError() {
+        responses.incrementAndGet();
+        congested.set(true);
+    }
+
+    public int initialRate(final int rate) {
+        return Math.max(floor, Math.min(ceiling, rate));
+    }
+
+    /**
+     * Returns the rate to use for the next period and resets recorded responses.
+     *
+     * @param rateLimited whether notifications waited for the rate limit during the
+     *                    period
+     */
+    public int nextRate(final int currentRate, final boolean rateLimited) {
+        if (congested.getAndSet(false)) {
+            responses.set(0);
+            return Math.max(floor, (int) (currentRate * decreaseFactor));
+        }
+        if (responses.getAndSet(0) > 0 && rateLimited) {
+            return Math.min(ceiling, currentRate + increaseStep);
+        }
+        return currentRate;
+    }
+}
@@ -3,10 +3,44 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
 import com.eatthepath.pushy.apns.ApnsPushNotification;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 public interface ApnsOperations<T> extends AutoCloseable {
 
     void sendNotification(ApnsPushNotification notification, T handler);
 
-    void waitUntilNoActivity(Duration toleranceDuration);
+    /**
+     * Waits until every notification sent has been handled or the timeout elapses,
+     * whichever comes first.
+     *
+     * @return the number of notifications still pending when this method returns
+     */
+    int waitUntilNoActivity(Duration timeout);
+
+    /**
+     * Tells whether notifications are waiting to be sent, because of a rate limit.
+     */
+    default boolean hasQueuedNotifications() {
+        return false;
+    }
+
+    /**
+     * Tells whether notifications should be sent with this template, an unavailable
+     * template is skipped by the {@link FailoverApnsTemplate}.
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Opens the connections to the APNs servers ahead of the first notifications by
+     * sending them the given probe notification.
+     *
+     * @return a future completed when every connection answered the probe
+     */
+    default CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return completedFuture(null);
+    }
 }
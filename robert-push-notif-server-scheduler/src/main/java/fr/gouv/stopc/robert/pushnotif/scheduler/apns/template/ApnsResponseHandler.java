@@ -5,6 +5,13 @@ import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerPr
 
 public interface ApnsResponseHandler {
 
+    /**
+     * Called when the notification leaves the {@link RateLimitingApnsTemplate}
+     * queue to be sent.
+     */
+    default void onDispatched() {
+    }
+
     /**
      * Called when the notification request is accepted
      */
@@ -32,4 +39,12 @@ public interface ApnsResponseHandler {
      * @param cause error message
      */
     void onError(final Throwable cause);
+
+    /**
+     * Called when the notification request is not sent because the server is
+     * unavailable when the notification is about to be sent.
+     *
+     * @see ApnsOperations#isAvailable()
+     */
+    void onUnavailable();
 }
@@ -13,4 +13,23 @@ public class ApnsServerCoordinates {
     public String toString() {
         return String.format("%s:%d", host, port);
     }
+
+    /**
+     * Parses coordinates formatted by {@link #toString()}.
+     *
+     * @return the coordinates, or null when the value is null or malformed
+     */
+    public static ApnsServerCoordinates parse(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final var separator = value.lastIndexOf(':');
+        try {
+            return new ApnsServerCoordinates(
+                    value.substring(0, separator), Integer.parseInt(value.substring(separator + 1))
+            );
+        } catch (final IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -2,41 +2,67 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
 
 import com.eatthepath.pushy.apns.ApnsClient;
 import com.eatthepath.pushy.apns.ApnsPushNotification;
+import com.eatthepath.pushy.apns.PushNotificationResponse;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
 
 import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.UNKNOWN;
 import static java.util.concurrent.TimeUnit.MINUTES;
-import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * Used to identify the APN server host & port when an error occurs
+ * <p>
+ * Response handlers are called on the given executor so that pushy event loop
+ * threads only do I/O. When the executor rejects a response, it is handled on
+ * the pushy event loop thread rather than being lost.
  */
 @Slf4j
 @RequiredArgsConstructor
 public class ApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
 
-    private final AtomicInteger pendingNotifications = new AtomicInteger(0);
+    private final PendingNotifications pendingNotifications = new PendingNotifications();
 
     private final ApnsServerCoordinates serverCoordinates;
 
     private final ApnsClient apnsClient;
 
+    private final int concurrentConnections;
+
     private final List<RejectionReason> inactiveRejectionReasons;
 
+    private final Executor responseExecutor;
+
+    private final IntSupplier openConnections;
+
     public void sendNotification(final ApnsPushNotification notification,
             final ApnsResponseHandler responseHandler) {
 
-        pendingNotifications.incrementAndGet();
+        pendingNotifications.increment();
         final var sendNotificationFuture = apnsClient.sendNotification(notification);
 
         sendNotificationFuture.whenComplete((response, cause) -> {
-            pendingNotifications.decrementAndGet();
+            try {
+                responseExecutor.execute(() -> handleResponse(response, cause, responseHandler));
+            } catch (final RejectedExecutionException e) {
+                // the response executor is saturated or shut down: the response APNs
+                // answered is still handled, on the pushy event loop thread
+                handleResponse(response, cause, responseHandler);
+            }
+        });
+    }
+
+    private void handleResponse(final PushNotificationResponse<ApnsPushNotification> response,
+            final Throwable cause, final ApnsResponseHandler responseHandler) {
+        try {
             if (response != null) {
                 if (response.isAccepted()) {
                     responseHandler.onSuccess();
@@ -57,23 +83,44 @@ public class ApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
                 // sending the notification or waiting for a reply.
                 responseHandler.onError(cause);
             }
-        }).exceptionally(e -> {
+        } catch (final RuntimeException e) {
             log.error("Unexpected error occurred", e);
-            return null;
-        });
+        } finally {
+            pendingNotifications.decrement();
+        }
     }
 
+    /**
+     * Sends the probe once per connection at the same time, which makes pushy open
+     * every connection, complete the TLS and HTTP/2 handshakes and sign its
+     * authentication token. A rejection of the probe still means the connection is
+     * ready, the warm-up fails when fewer connections than expected are open once
+     * every probe has been answered.
+     */
     @Override
-    public void waitUntilNoActivity(final Duration toleranceDuration) {
-        do {
-            log.info("{} has {} remaining pending notifications", this, pendingNotifications.get());
-            try {
-                SECONDS.sleep(toleranceDuration.getSeconds());
-            } catch (InterruptedException e) {
-                log.warn("Unable to wait until all notifications are sent", e);
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return CompletableFuture.allOf(
+                IntStream.range(0, concurrentConnections)
+                        .mapToObj(i -> apnsClient.sendNotification(probe))
+                        .toArray(CompletableFuture[]::new)
+        ).thenRun(() -> {
+            final var open = openConnections.getAsInt();
+            if (open < concurrentConnections) {
+                throw new IllegalStateException(
+                        String.format("%s has %d open connections out of %d", this, open, concurrentConnections)
+                );
             }
-        } while (pendingNotifications.get() != 0);
-        log.info("{} has no more pending notifications", this);
+        });
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        log.info("{} has {} remaining pending notifications", this, pendingNotifications.get());
+        final var remaining = pendingNotifications.awaitNone(timeout);
+        if (remaining == 0) {
+            log.info("{} has no more pending notifications", this);
+        }
+        return remaining;
     }
 
     @Override
@@ -0,0 +1,162 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An APNS template decorator limiting the number of notifications waiting for
+ * their final outcome.
+ * <p>
+ * It must wrap the whole template chain: only the caller submitting new
+ * notifications blocks when the limit is reached, never the threads handling
+ * responses and re-sending notifications to fallback servers.
+ * <p>
+ * Being at the top of the chain, it also knows when the last notification has
+ * been handled, including notifications moving from a server to a fallback one:
+ * {@link #waitUntilNoActivity(Duration)} returns as soon as it happens. The
+ * timeout only starts once no notification waits for a rate limit: sending a
+ * large batch takes longer than the time to wait for the last responses. The
+ * time spent waiting for the rate limits is bounded by its own maximum queueing
+ * time.
+ */
+@Slf4j
+public class BackpressureApnsTemplate implements ApnsOperations<FailoverApnsResponseHandler> {
+
+    private static final Duration QUEUED_NOTIFICATIONS_POLL_INTERVAL = Duration.ofMillis(100);
+
+    private final ApnsOperations<FailoverApnsResponseHandler> delegate;
+
+    private final Semaphore semaphore;
+
+    private final Duration maxQueueingTime;
+
+    private final PendingNotifications pendingNotifications = new PendingNotifications();
+
+    /**
+     * @param maxNumberOfPendingNotifications the number of notifications above
+     *                                        which the caller blocks
+     * @param maxQueueingTime                 the maximum time
+     *                                        {@link #waitUntilNoActivity(Duration)}
+     *                                        waits for notifications queued by a
+     *                                        rate limit
+     */
+    public BackpressureApnsTemplate(final int maxNumberOfPendingNotifications,
+            final Duration maxQueueingTime,
+            final ApnsOperations<FailoverApnsResponseHandler> delegate) {
+        this.delegate = delegate;
+        this.semaphore = new Semaphore(maxNumberOfPendingNotifications);
+        this.maxQueueingTime = maxQueueingTime;
+    }
+
+    @Override
+    public void sendNotification(final ApnsPushNotification notification,
+            final FailoverApnsResponseHandler responseHandler) {
+
+        try {
+            semaphore.acquire();
+        } catch (final InterruptedException e) {
+            log.error("error during backpressure process", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        pendingNotifications.increment();
+        final var releasingHandler = new FailoverApnsResponseHandler() {
+
+            @Override
+            public void onSuccess(final ApnsServerCoordinates server) {
+                semaphore.release();
+                try {
+                    responseHandler.onSuccess(server);
+                } finally {
+                    pendingNotifications.decrement();
+                }
+            }
+
+            @Override
+            public void onRejection(final List<RejectionReason> reasons) {
+                semaphore.release();
+                try {
+                    responseHandler.onRejection(reasons);
+                } finally {
+                    pendingNotifications.decrement();
+                }
+            }
+
+            @Override
+            public void onError(final Throwable reason) {
+                semaphore.release();
+                try {
+                    responseHandler.onError(reason);
+                } finally {
+                    pendingNotifications.decrement();
+                }
+            }
+
+            @Override
+            public void onInactive(final List<RejectionReason> reasons) {
+                semaphore.release();
+                try {
+                    responseHandler.onInactive(reasons);
+                } finally {
+                    pendingNotifications.decrement();
+                }
+            }
+
+            @Override
+            public void onNotAttempted(final List<RejectionReason> reasons) {
+                semaphore.release();
+                try {
+                    responseHandler.onNotAttempted(reasons);
+                } finally {
+                    pendingNotifications.decrement();
+                }
+            }
+
+            @Override
+            public ApnsServerCoordinates getPreferredServer() {
+                return responseHandler.getPreferredServer();
+            }
+        };
+        delegate.sendNotification(notification, releasingHandler);
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return delegate.warmUp(probe);
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        final var queueingDeadline = System.nanoTime() + maxQueueingTime.toNanos();
+        var pending = pendingNotifications.get();
+        while (pending != 0 && delegate.hasQueuedNotifications() && !Thread.currentThread().isInterrupted()) {
+            final var remainingNanos = queueingDeadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                log.warn(
+                        "{} notifications are still waiting for a rate limit after {}", pending, maxQueueingTime
+                );
+                break;
+            }
+            pending = pendingNotifications.awaitNone(
+                    Duration.ofNanos(Math.min(remainingNanos, QUEUED_NOTIFICATIONS_POLL_INTERVAL.toNanos()))
+            );
+        }
+        return pendingNotifications.awaitNone(timeout);
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Backpressure(%s)", delegate);
+    }
+}
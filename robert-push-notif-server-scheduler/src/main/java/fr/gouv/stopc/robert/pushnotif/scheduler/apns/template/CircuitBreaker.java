@@ -0,0 +1,179 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.CircuitBreaker.State.*;
+
+/**
+ * A circuit breaker computing the rate of failed and slow responses over the
+ * last {@code slidingWindowSize} responses.
+ * <p>
+ * The breaker opens when, after at least {@code minimumNumberOfCalls}
+ * responses, either rate reaches its threshold. It stays open during
+ * {@code waitDurationInOpenState}, then becomes half-open and lets
+ * {@code permittedCallsInHalfOpenState} calls through: it closes again when
+ * their rates are below the thresholds, opens again otherwise.
+ * <p>
+ * Errors and rejections with one of the {@code failureRejectionReasons} are
+ * failures; other rejections mean the server is healthy.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+
+    private final long slowCallDurationNanos;
+
+    private final int slowCallRateThreshold;
+
+    private final int minimumNumberOfCalls;
+
+    private final long waitDurationInOpenStateNanos;
+
+    private final int permittedCallsInHalfOpenState;
+
+    private final List<RejectionReason> failureRejectionReasons;
+
+    private final boolean[] failedCalls;
+
+    private final boolean[] slowCalls;
+
+    private int recordedCalls;
+
+    private int nextCall;
+
+    private int failures;
+
+    private int slows;
+
+    private State state = CLOSED;
+
+    private long openedAtNanos;
+
+    private int halfOpenCalls;
+
+    /**
+     * @param failureRateThreshold  percentage of failures opening the breaker
+     * @param slowCallRateThreshold percentage of responses slower than
+     *                              {@code slowCallDuration} opening the breaker
+     */
+    @Builder
+    public CircuitBreaker(final int failureRateThreshold,
+            final Duration slowCallDuration,
+            final int slowCallRateThreshold,
+            final int slidingWindowSize,
+            final int minimumNumberOfCalls,
+            final Duration waitDurationInOpenState,
+            final int permittedCallsInHalfOpenState,
+            final List<RejectionReason> failureRejectionReasons) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDurationNanos = slowCallDuration.toNanos();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.minimumNumberOfCalls = Math.min(minimumNumberOfCalls, slidingWindowSize);
+        this.waitDurationInOpenStateNanos = waitDurationInOpenState.toNanos();
+        this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+        this.failureRejectionReasons = failureRejectionReasons;
+        this.failedCalls = new boolean[slidingWindowSize];
+        this.slowCalls = new boolean[slidingWindowSize];
+    }
+
+    public synchronized State getState() {
+        if (state == OPEN && System.nanoTime() - openedAtNanos >= waitDurationInOpenStateNanos) {
+            transitionTo(HALF_OPEN);
+        }
+        return state;
+    }
+
+    /**
+     * Tells whether a call is allowed: always when closed, never when open, and as
+     * long as trial calls remain when half-open.
+     */
+    public synchronized boolean isCallPermitted() {
+        final var currentState = getState();
+        return currentState == CLOSED
+                || currentState == HALF_OPEN && halfOpenCalls < permittedCallsInHalfOpenState;
+    }
+
+    /**
+     * Records a call being sent when it is permitted, using one of the trial calls
+     * when half-open.
+     *
+     * @return whether the call is permitted
+     * @see #isCallPermitted()
+     */
+    public synchronized boolean tryStartCall() {
+        if (!isCallPermitted()) {
+            return false;
+        }
+        if (state == HALF_OPEN) {
+            halfOpenCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * Records a response received after {@code latencyNanos}.
+     *
+     * @param rejectionReason the rejection reason, {@link RejectionReason#NONE}
+     *                        when the notification is accepted or null on error
+     */
+    public synchronized void onResponse(final long latencyNanos, final RejectionReason rejectionReason) {
+        if (state == OPEN) {
+            // late response of a call sent before the breaker opened
+            return;
+        }
+        final var failed = rejectionReason == null || failureRejectionReasons.contains(rejectionReason);
+        final var slow = latencyNanos > slowCallDurationNanos;
+        record(failed, slow);
+        if (state == HALF_OPEN) {
+            if (recordedCalls >= permittedCallsInHalfOpenState) {
+                transitionTo(isAboveThresholds() ? OPEN : CLOSED);
+            }
+        } else if (recordedCalls >= minimumNumberOfCalls && isAboveThresholds()) {
+            transitionTo(OPEN);
+        }
+    }
+
+    private void record(final boolean failed, final boolean slow) {
+        if (recordedCalls == failedCalls.length) {
+            failures -= failedCalls[nextCall] ? 1 : 0;
+            slows -= slowCalls[nextCall] ? 1 : 0;
+        } else {
+            recordedCalls++;
+        }
+        failedCalls[nextCall] = failed;
+        slowCalls[nextCall] = slow;
+        failures += failed ? 1 : 0;
+        slows += slow ? 1 : 0;
+        nextCall = (nextCall + 1) % failedCalls.length;
+    }
+
+    private boolean isAboveThresholds() {
+        return failures * 100 >= failureRateThreshold * recordedCalls
+                || slows * 100 >= slowCallRateThreshold * recordedCalls;
+    }
+
+    private void transitionTo(final State newState) {
+        log.warn("Circuit breaker state changes from {} to {}", state, newState);
+        state = newState;
+        recordedCalls = 0;
+        nextCall = 0;
+        failures = 0;
+        slows = 0;
+        halfOpenCalls = 0;
+        if (newState == OPEN) {
+            openedAtNanos = System.nanoTime();
+        }
+    }
+}
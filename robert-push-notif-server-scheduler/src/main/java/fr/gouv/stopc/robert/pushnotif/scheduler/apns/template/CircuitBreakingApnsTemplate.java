@@ -0,0 +1,123 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.NONE;
+
+/**
+ * An APNS template decorator feeding a {@link CircuitBreaker} with the latency
+ * and the outcome of each notification.
+ * <p>
+ * The template is unavailable while the breaker is open, the
+ * {@link FailoverApnsTemplate} then sends notifications to the other servers.
+ * As notifications may wait in a {@link RateLimitingApnsTemplate} queue, the
+ * breaker is checked again when a notification is about to be sent: a
+ * notification which is not permitted then completes with
+ * {@link ApnsResponseHandler#onUnavailable()}. The state of the breaker is
+ * exported by the "pushy.notifications.circuitbreaker.state" gauge, which is 1
+ * for the current state and 0 for the other ones.
+ */
+public class CircuitBreakingApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final ApnsOperations<ApnsResponseHandler> delegate;
+
+    public CircuitBreakingApnsTemplate(final CircuitBreaker circuitBreaker,
+            final ApnsServerCoordinates serverCoordinates,
+            final MeterRegistry meterRegistry,
+            final ApnsOperations<ApnsResponseHandler> delegate) {
+        this.circuitBreaker = circuitBreaker;
+        this.delegate = delegate;
+        for (final var state : CircuitBreaker.State.values()) {
+            Gauge.builder(
+                    "pushy.notifications.circuitbreaker.state", circuitBreaker, b -> b.getState() == state ? 1 : 0
+            )
+                    .tags(
+                            "host", serverCoordinates.getHost(),
+                            "port", String.valueOf(serverCoordinates.getPort()),
+                            "state", state.name()
+                    )
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    @Override
+    public void sendNotification(final ApnsPushNotification notification,
+            final ApnsResponseHandler responseHandler) {
+        if (!circuitBreaker.tryStartCall()) {
+            responseHandler.onUnavailable();
+            return;
+        }
+        delegate.sendNotification(notification, new CircuitBreakingHandler(responseHandler, System.nanoTime()));
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return delegate.warmUp(probe);
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        return delegate.waitUntilNoActivity(timeout);
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CircuitBreaking(%s)", delegate);
+    }
+
+    @RequiredArgsConstructor
+    private class CircuitBreakingHandler implements ApnsResponseHandler {
+
+        private final ApnsResponseHandler responseHandler;
+
+        private final long sentAtNanos;
+
+        @Override
+        public void onSuccess() {
+            circuitBreaker.onResponse(System.nanoTime() - sentAtNanos, NONE);
+            responseHandler.onSuccess();
+        }
+
+        @Override
+        public void onRejection(final RejectionReason reason) {
+            circuitBreaker.onResponse(System.nanoTime() - sentAtNanos, reason);
+            responseHandler.onRejection(reason);
+        }
+
+        @Override
+        public void onInactive(final RejectionReason reason) {
+            circuitBreaker.onResponse(System.nanoTime() - sentAtNanos, reason);
+            responseHandler.onInactive(reason);
+        }
+
+        @Override
+        public void onError(final Throwable cause) {
+            circuitBreaker.onResponse(System.nanoTime() - sentAtNanos, null);
+            responseHandler.onError(cause);
+        }
+
+        @Override
+        public void onUnavailable() {
+            responseHandler.onUnavailable();
+        }
+    }
+}
@@ -9,8 +9,10 @@ public interface FailoverApnsResponseHandler {
 
     /**
      * Called when the notification request is accepted.
+     *
+     * @param server the server which accepted the notification
      */
-    void onSuccess();
+    void onSuccess(ApnsServerCoordinates server);
 
     /**
      * Called when the notification request is rejected.
@@ -34,4 +36,24 @@ public interface FailoverApnsResponseHandler {
      * @see RobertPushServerProperties.Apns#getInactiveRejectionReason()
      */
     void onInactive(List<RejectionReason> reasons);
+
+    /**
+     * Called when the notification has not been sent to some servers because they
+     * were unavailable, and the other servers did not accept it. The outcome is
+     * unknown: the notification should be sent again later.
+     *
+     * @param reasons inactive rejections returned by the servers the notification
+     *                was sent to
+     */
+    void onNotAttempted(List<RejectionReason> reasons);
+
+    /**
+     * The server to try first, usually the one which accepted the previous
+     * notification sent to the same token.
+     *
+     * @return the server to try first, or null to follow the failover order
+     */
+    default ApnsServerCoordinates getPreferredServer() {
+        return null;
+    }
 }
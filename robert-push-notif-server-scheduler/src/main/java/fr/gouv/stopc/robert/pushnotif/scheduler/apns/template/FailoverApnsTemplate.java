@@ -2,47 +2,216 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
 
 import com.eatthepath.pushy.apns.ApnsPushNotification;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.joining;
 
 /**
  * An APNS template able to defer notification sending to fallback servers
  * depending on the reason returned from the previous server.
+ * <p>
+ * Servers are tried in order: each attempt only holds the index of the server
+ * it was sent to, and the rejection history is only built when a server rejects
+ * the notification.
+ * <p>
+ * When the response handler has a preferred server, the notification is sent to
+ * this server first, then to the other servers in order when it is rejected as
+ * inactive. Failover hops avoided this way are counted by the
+ * "pushy.notifications.failover.avoided.hops" counter.
+ * <p>
+ * When a hedging delay is given, a notification without preferred server is
+ * also sent to the following servers when the first one did not answer within
+ * this delay, counted from the moment the notification leaves its rate limiting
+ * queue, and the first accepted response wins. The number of hedged
+ * notifications waiting for their response is capped.
+ * <p>
+ * Servers whose template is not {@link ApnsOperations#isAvailable() available}
+ * are skipped, as well as servers which turn out to be
+ * {@link ApnsResponseHandler#onUnavailable() unavailable} when the notification
+ * is about to be sent to them. A notification which is not accepted after a
+ * server has been skipped completes with
+ * {@link FailoverApnsResponseHandler#onNotAttempted(List)} instead of a
+ * definitive inactive outcome: the skipped server might have accepted it.
  */
 @Slf4j
-@RequiredArgsConstructor
 public class FailoverApnsTemplate implements ApnsOperations<FailoverApnsResponseHandler> {
 
+    private final List<ApnsServerCoordinates> servers;
+
     private final List<ApnsOperations<ApnsResponseHandler>> apnsDelegates;
 
+    private final Counter avoidedHopsCounter;
+
+    private final Duration hedgingDelay;
+
+    private final Semaphore hedgePermits;
+
+    private final ScheduledExecutorService hedgingExecutor;
+
+    private final Counter hedgesCounter;
+
+    private final Counter cappedHedgesCounter;
+
+    /**
+     * @param apnsDelegates templates of each server, iterated in failover order
+     */
+    public FailoverApnsTemplate(
+            final Map<ApnsServerCoordinates, ApnsOperations<ApnsResponseHandler>> apnsDelegates,
+            final MeterRegistry meterRegistry) {
+        this(apnsDelegates, null, 0, meterRegistry);
+    }
+
+    /**
+     * @param apnsDelegates    templates of each server, iterated in failover order
+     * @param hedgingDelay     delay before sending a notification to the next
+     *                         servers, may be null to disable hedging
+     * @param maxPendingHedges maximum number of hedged notifications waiting for
+     *                         their response
+     */
+    public FailoverApnsTemplate(
+            final Map<ApnsServerCoordinates, ApnsOperations<ApnsResponseHandler>> apnsDelegates,
+            final Duration hedgingDelay,
+            final int maxPendingHedges,
+            final MeterRegistry meterRegistry) {
+        this.servers = List.copyOf(apnsDelegates.keySet());
+        this.apnsDelegates = List.copyOf(apnsDelegates.values());
+        this.hedgingDelay = this.apnsDelegates.size() > 1 ? hedgingDelay : null;
+        this.hedgePermits = new Semaphore(maxPendingHedges);
+        this.hedgingExecutor = this.hedgingDelay == null ? null
+                : Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("apns-hedging-"));
+        this.avoidedHopsCounter = Counter.builder("pushy.notifications.failover.avoided.hops")
+                .description("failover hops avoided by sending notifications to their preferred server first")
+                .register(meterRegistry);
+        this.hedgesCounter = Counter.builder("pushy.notifications.failover.hedged")
+                .description("notifications sent to the next servers because the first one was slow to answer")
+                .register(meterRegistry);
+        this.cappedHedgesCounter = Counter.builder("pushy.notifications.failover.hedged.capped")
+                .description("notifications not hedged because too many hedged notifications are pending")
+                .register(meterRegistry);
+    }
+
     @Override
     public void sendNotification(final ApnsPushNotification notification,
             final FailoverApnsResponseHandler responseHandler) {
 
-        final var apnsTemplates = new ConcurrentLinkedQueue<>(apnsDelegates);
-        final var first = apnsTemplates.poll();
-        if (first != null) {
-            first.sendNotification(
-                    notification,
-                    new TryOnNextServerAfterInactiveResponseHandler(notification, apnsTemplates, responseHandler)
-            );
+        if (!apnsDelegates.isEmpty()) {
+            final var preferredServer = responseHandler.getPreferredServer();
+            if (preferredServer == null && hedgingExecutor != null && apnsDelegates.get(0).isAvailable()) {
+                new HedgedNotification(notification, responseHandler).send();
+            } else {
+                final var preferredServerIndex = preferredServer == null ? -1 : servers.indexOf(preferredServer);
+                sendTo(0, preferredServerIndex, notification, responseHandler, List.of(), false);
+            }
         }
     }
 
+    /**
+     * Sends the notification to the server of the first available attempt from
+     * {@code firstAttempt}, completes the notification when there is none.
+     *
+     * @param serverSkipped whether a previous server has been skipped because it
+     *                      was unavailable
+     */
+    private void sendTo(final int firstAttempt,
+            final int preferredServerIndex,
+            final ApnsPushNotification notification,
+            final FailoverApnsResponseHandler responseHandler,
+            final List<RejectionReason> rejectionsHistory,
+            final boolean serverSkipped) {
+        final var attempt = nextAvailableAttempt(firstAttempt, preferredServerIndex);
+        final var skipped = serverSkipped || attempt != firstAttempt;
+        if (attempt == apnsDelegates.size()) {
+            if (skipped) {
+                responseHandler.onNotAttempted(rejectionsHistory);
+            } else {
+                responseHandler.onInactive(rejectionsHistory);
+            }
+            return;
+        }
+        final var serverIndex = serverIndex(attempt, preferredServerIndex);
+        apnsDelegates.get(serverIndex).sendNotification(
+                notification,
+                new TryOnNextServerAfterInactiveResponseHandler(
+                        attempt, preferredServerIndex, notification, responseHandler, rejectionsHistory, skipped
+                )
+        );
+    }
+
+    /**
+     * Returns the first attempt from {@code firstAttempt} whose server is
+     * available, or the number of servers when none is.
+     */
+    private int nextAvailableAttempt(final int firstAttempt, final int preferredServerIndex) {
+        var attempt = firstAttempt;
+        while (attempt < apnsDelegates.size()
+                && !apnsDelegates.get(serverIndex(attempt, preferredServerIndex)).isAvailable()) {
+            attempt++;
+        }
+        return attempt;
+    }
+
+    /**
+     * Returns the index of the server for the given attempt: the preferred server
+     * first if there is one, then the other servers in failover order.
+     */
+    private static int serverIndex(final int attempt, final int preferredServerIndex) {
+        if (preferredServerIndex < 0) {
+            return attempt;
+        } else if (attempt == 0) {
+            return preferredServerIndex;
+        } else if (attempt <= preferredServerIndex) {
+            return attempt - 1;
+        } else {
+            return attempt;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return CompletableFuture.allOf(
+                apnsDelegates.stream()
+                        .map(delegate -> delegate.warmUp(probe))
+                        .toArray(CompletableFuture[]::new)
+        );
+    }
+
     @Override
-    public void waitUntilNoActivity(final Duration toleranceDuration) {
-        apnsDelegates.forEach(apnsTemplate -> apnsTemplate.waitUntilNoActivity(toleranceDuration));
+    public boolean hasQueuedNotifications() {
+        return apnsDelegates.stream().anyMatch(ApnsOperations::hasQueuedNotifications);
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        var remaining = 0;
+        for (final var apnsTemplate : apnsDelegates) {
+            final var remainingTime = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+            remaining += apnsTemplate.waitUntilNoActivity(remainingTime);
+        }
+        return remaining;
     }
 
     @Override
     public void close() {
+        if (hedgingExecutor != null) {
+            hedgingExecutor.shutdownNow();
+        }
         apnsDelegates.parallelStream().forEach(delegate -> {
             try {
                 delegate.close();
@@ -60,26 +229,42 @@ public class FailoverApnsTemplate implements ApnsOperations<FailoverApnsResponse
         return String.format("Failover(%s)", serverList);
     }
 
+    /**
+     * Handles the response of a single server, sending the notification to the next
+     * server when the response is an inactive rejection.
+     */
     @RequiredArgsConstructor
-    private static class TryOnNextServerAfterInactiveResponseHandler implements ApnsResponseHandler {
+    private class TryOnNextServerAfterInactiveResponseHandler implements ApnsResponseHandler {
 
-        private final List<RejectionReason> rejectionsHistory = new ArrayList<>();
+        private final int attempt;
 
-        private final ApnsPushNotification notification;
+        private final int preferredServerIndex;
 
-        private final ConcurrentLinkedQueue<ApnsOperations<ApnsResponseHandler>> apnsTemplates;
+        private final ApnsPushNotification notification;
 
         private final FailoverApnsResponseHandler failoverResponseHandler;
 
+        /**
+         * Inactive rejections returned by the previous servers.
+         */
+        private final List<RejectionReason> rejectionsHistory;
+
+        /**
+         * Whether a previous server has been skipped because it was unavailable.
+         */
+        private final boolean serverSkipped;
+
         @Override
         public void onSuccess() {
-            failoverResponseHandler.onSuccess();
+            if (attempt == 0 && preferredServerIndex > 0) {
+                avoidedHopsCounter.increment(preferredServerIndex);
+            }
+            failoverResponseHandler.onSuccess(servers.get(serverIndex(attempt, preferredServerIndex)));
         }
 
         @Override
         public void onRejection(final RejectionReason reason) {
-            rejectionsHistory.add(reason);
-            failoverResponseHandler.onRejection(rejectionsHistory);
+            failoverResponseHandler.onRejection(withRejection(reason));
         }
 
         @Override
@@ -89,14 +274,248 @@ public class FailoverApnsTemplate implements ApnsOperations<FailoverApnsResponse
 
         @Override
         public void onInactive(final RejectionReason reason) {
-            rejectionsHistory.add(reason);
-            final var nextApnsTemplate = apnsTemplates.poll();
-            if (null != nextApnsTemplate) {
-                // try next apns in the queue
-                nextApnsTemplate.sendNotification(notification, this);
+            // try next apns in the list
+            sendTo(
+                    attempt + 1, preferredServerIndex, notification, failoverResponseHandler, withRejection(reason),
+                    serverSkipped
+            );
+        }
+
+        @Override
+        public void onUnavailable() {
+            sendTo(attempt + 1, preferredServerIndex, notification, failoverResponseHandler, rejectionsHistory, true);
+        }
+
+        private List<RejectionReason> withRejection(final RejectionReason reason) {
+            final var rejections = new ArrayList<RejectionReason>(rejectionsHistory.size() + 1);
+            rejections.addAll(rejectionsHistory);
+            rejections.add(reason);
+            return rejections;
+        }
+    }
+
+    /**
+     * A notification sent to the first server, then to the following servers when
+     * the first one did not answer within the hedging delay.
+     * <p>
+     * The first accepted response is the outcome. Otherwise, once both have
+     * answered, the outcome is the one the sequential failover would give: the
+     * outcome of the following servers when the first server rejected the
+     * notification as inactive, the outcome of the first server otherwise.
+     */
+    @RequiredArgsConstructor
+    private class HedgedNotification {
+
+        private final ApnsPushNotification notification;
+
+        private final FailoverApnsResponseHandler responseHandler;
+
+        private ScheduledFuture<?> hedgeTimer;
+
+        private boolean hedged;
+
+        private boolean completed;
+
+        private boolean firstServerAnswered;
+
+        private RejectionReason firstServerInactiveReason;
+
+        private boolean firstServerSkipped;
+
+        private Runnable firstServerOutcome;
+
+        /**
+         * Emits the outcome of the following servers given the inactive rejections
+         * returned by the first server.
+         */
+        private Consumer<List<RejectionReason>> nextServersOutcome;
+
+        private void send() {
+            apnsDelegates.get(0).sendNotification(notification, new FirstServerResponseHandler());
+        }
+
+        /**
+         * Starts the hedging delay when the notification is actually sent to the first
+         * server, the time spent waiting for its rate limit excluded.
+         */
+        private synchronized void dispatched() {
+            if (!firstServerAnswered && !completed) {
+                hedgeTimer = hedgingExecutor.schedule(this::hedge, hedgingDelay.toNanos(), NANOSECONDS);
+            }
+        }
+
+        private void cancelHedgeTimer() {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+        }
+
+        private synchronized void hedge() {
+            if (firstServerAnswered || completed || nextAvailableAttempt(1, -1) == apnsDelegates.size()) {
+                return;
+            }
+            if (!hedgePermits.tryAcquire()) {
+                cappedHedgesCounter.increment();
+                return;
+            }
+            hedged = true;
+            hedgesCounter.increment();
+            sendTo(1, -1, notification, new NextServersResponseHandler(), List.of(), false);
+        }
+
+        private synchronized void succeed(final ApnsServerCoordinates server) {
+            if (!completed) {
+                completed = true;
+                cancelHedgeTimer();
+                responseHandler.onSuccess(server);
+            }
+        }
+
+        private synchronized void firstServerFailed(final Runnable outcome) {
+            firstServerAnswered = true;
+            cancelHedgeTimer();
+            if (completed) {
+                return;
+            }
+            if (!hedged) {
+                completed = true;
+                outcome.run();
             } else {
-                failoverResponseHandler.onInactive(rejectionsHistory);
+                firstServerOutcome = outcome;
+                completeWhenAllAnswered();
             }
         }
+
+        private synchronized void firstServerInactive(final RejectionReason reason) {
+            firstServerAnswered = true;
+            cancelHedgeTimer();
+            if (completed) {
+                return;
+            }
+            if (!hedged) {
+                // the following servers are tried sequentially
+                completed = true;
+                sendTo(1, -1, notification, responseHandler, List.of(reason), false);
+            } else {
+                firstServerInactiveReason = reason;
+                completeWhenAllAnswered();
+            }
+        }
+
+        private synchronized void firstServerUnavailable() {
+            firstServerAnswered = true;
+            cancelHedgeTimer();
+            if (completed) {
+                return;
+            }
+            if (!hedged) {
+                completed = true;
+                sendTo(1, -1, notification, responseHandler, List.of(), true);
+            } else {
+                firstServerSkipped = true;
+                completeWhenAllAnswered();
+            }
+        }
+
+        private synchronized void nextServersFailed(final Consumer<List<RejectionReason>> outcome) {
+            if (!completed) {
+                nextServersOutcome = outcome;
+                completeWhenAllAnswered();
+            }
+        }
+
+        private void completeWhenAllAnswered() {
+            if (nextServersOutcome == null || !firstServerAnswered) {
+                return;
+            }
+            completed = true;
+            if (firstServerInactiveReason != null) {
+                nextServersOutcome.accept(List.of(firstServerInactiveReason));
+            } else if (firstServerSkipped) {
+                nextServersOutcome.accept(List.of());
+            } else {
+                firstServerOutcome.run();
+            }
+        }
+
+        private class FirstServerResponseHandler implements ApnsResponseHandler {
+
+            @Override
+            public void onDispatched() {
+                dispatched();
+            }
+
+            @Override
+            public void onSuccess() {
+                succeed(servers.get(0));
+            }
+
+            @Override
+            public void onRejection(final RejectionReason reason) {
+                firstServerFailed(() -> responseHandler.onRejection(List.of(reason)));
+            }
+
+            @Override
+            public void onInactive(final RejectionReason reason) {
+                firstServerInactive(reason);
+            }
+
+            @Override
+            public void onError(final Throwable cause) {
+                firstServerFailed(() -> responseHandler.onError(cause));
+            }
+
+            @Override
+            public void onUnavailable() {
+                firstServerUnavailable();
+            }
+        }
+
+        private class NextServersResponseHandler implements FailoverApnsResponseHandler {
+
+            @Override
+            public void onSuccess(final ApnsServerCoordinates server) {
+                hedgePermits.release();
+                succeed(server);
+            }
+
+            @Override
+            public void onRejection(final List<RejectionReason> reasons) {
+                hedgePermits.release();
+                nextServersFailed(previous -> responseHandler.onRejection(concat(previous, reasons)));
+            }
+
+            @Override
+            public void onError(final Throwable reason) {
+                hedgePermits.release();
+                nextServersFailed(previous -> responseHandler.onError(reason));
+            }
+
+            @Override
+            public void onInactive(final List<RejectionReason> reasons) {
+                hedgePermits.release();
+                nextServersFailed(previous -> {
+                    if (firstServerSkipped) {
+                        responseHandler.onNotAttempted(concat(previous, reasons));
+                    } else {
+                        responseHandler.onInactive(concat(previous, reasons));
+                    }
+                });
+            }
+
+            @Override
+            public void onNotAttempted(final List<RejectionReason> reasons) {
+                hedgePermits.release();
+                nextServersFailed(previous -> responseHandler.onNotAttempted(concat(previous, reasons)));
+            }
+        }
+    }
+
+    private static List<RejectionReason> concat(final List<RejectionReason> first,
+            final List<RejectionReason> second) {
+        final var rejections = new ArrayList<RejectionReason>(first.size() + second.size());
+        rejections.addAll(first);
+        rejections.addAll(second);
+        return rejections;
     }
 }
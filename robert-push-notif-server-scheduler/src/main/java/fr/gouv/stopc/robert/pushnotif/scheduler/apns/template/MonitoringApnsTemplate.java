@@ -12,6 +12,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
@@ -124,14 +125,25 @@ public class MonitoringApnsTemplate implements ApnsOperations<ApnsResponseHandle
                 sample.stop(getTimer(REJECTED, reason));
                 responseHandler.onInactive(reason);
             }
+
+            @Override
+            public void onUnavailable() {
+                pendingNotifications.decrementAndGet();
+                responseHandler.onUnavailable();
+            }
         };
 
         delegate.sendNotification(notification, measuringHandler);
     }
 
     @Override
-    public void waitUntilNoActivity(final Duration toleranceDuration) {
-        delegate.waitUntilNoActivity(toleranceDuration);
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return delegate.warmUp(probe);
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        return delegate.waitUntilNoActivity(timeout);
     }
 
     @Override
@@ -0,0 +1,58 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Counts notifications waiting for their outcome and wakes up threads waiting
+ * for the count to drop to zero as soon as the last one completes.
+ */
+@Slf4j
+class PendingNotifications {
+
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    void increment() {
+        count.incrementAndGet();
+    }
+
+    void decrement() {
+        if (count.decrementAndGet() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    int get() {
+        return count.get();
+    }
+
+    /**
+     * Waits until there is no more pending notification or the timeout elapses.
+     *
+     * @return the number of notifications still pending, 0 when all notifications
+     *         completed before the timeout
+     */
+    int awaitNone(final Duration timeout) {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            var remainingNanos = timeout.toNanos();
+            while (count.get() != 0 && remainingNanos > 0) {
+                try {
+                    NANOSECONDS.timedWait(this, remainingNanos);
+                } catch (final InterruptedException e) {
+                    log.warn("Interrupted while waiting for {} pending notifications", count.get(), e);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remainingNanos = deadline - System.nanoTime();
+            }
+        }
+        return count.get();
+    }
+}
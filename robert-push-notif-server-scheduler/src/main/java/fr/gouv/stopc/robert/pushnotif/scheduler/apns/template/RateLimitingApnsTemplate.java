@@ -4,93 +4,262 @@ import com.eatthepath.pushy.apns.ApnsPushNotification;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
+import io.github.bucket4j.BucketConfiguration;
 import io.github.bucket4j.local.LocalBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.time.Duration;
-import java.util.concurrent.Semaphore;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.NONE;
+import static io.github.bucket4j.TokensInheritanceStrategy.AS_IS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * An APNS template decorator to limit notification rate.
+ * <p>
+ * Sending a notification never blocks the caller: the notification is queued
+ * and a dedicated thread sends queued notifications as soon as the rate limit
+ * allows it.
+ * <p>
+ * When an {@link AimdRateController} is given, the rate is periodically
+ * adjusted from the responses received.
+ * <p>
+ * Notifications still queued when the template is closed, or sent after, are
+ * completed as {@link ApnsResponseHandler#onUnavailable() unavailable}, so that
+ * the templates above release them and try the next server.
  */
 @Slf4j
 public class RateLimitingApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
 
-    private final LocalBucket rateLimitingBucket;
+    private static final long IDLE_PERIOD_NANOS = Duration.ofSeconds(1).toNanos();
+
+    private static final Duration DRAIN_TERMINATION_TIMEOUT = Duration.ofSeconds(1);
+
+    private LocalBucket rateLimitingBucket;
 
     private final ApnsOperations<ApnsResponseHandler> delegate;
 
-    private final Semaphore semaphore;
+    private final Queue<QueuedNotification> queue = new ConcurrentLinkedQueue<>();
+
+    private final PendingNotifications queuedNotifications = new PendingNotifications();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService drainExecutor;
+
+    private final IntFunction<Bandwidth> limitForRate;
+
+    private final AimdRateController rateController;
 
+    private final AtomicInteger rate = new AtomicInteger();
+
+    private final Timer waitTimer;
+
+    private final Timer gapTimer;
+
+    private long lastSendNanos;
+
+    private boolean rateLimited;
+
+    /**
+     * @param rate           the initial number of notifications per second
+     * @param limitForRate   builds the bucket limit for a given rate
+     * @param rateController adjusts the rate every {@code adjustmentInterval}, may
+     *                       be null to keep a static rate
+     */
     public RateLimitingApnsTemplate(
-            final int maxNotificationsPerSecond,
-            final int maxNumberOfPendingNotifications,
+            final int rate,
+            final IntFunction<Bandwidth> limitForRate,
+            final AimdRateController rateController,
+            final Duration adjustmentInterval,
+            final ApnsServerCoordinates serverCoordinates,
+            final MeterRegistry meterRegistry,
             final ApnsOperations<ApnsResponseHandler> delegate) {
 
         this.delegate = delegate;
-        this.semaphore = new Semaphore(maxNumberOfPendingNotifications);
-
-        final var limit = Bandwidth.classic(
-                maxNotificationsPerSecond,
-                Refill.intervally(
-                        maxNotificationsPerSecond,
-                        Duration.ofSeconds(1)
-                )
+        this.limitForRate = limitForRate;
+        this.rateController = rateController;
+        this.rate.set(rate);
+        this.drainExecutor = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("apns-rate-limiting-" + serverCoordinates + "-")
         );
-        this.rateLimitingBucket = Bucket.builder()
-                .addLimit(limit)
-                .withMillisecondPrecision()
-                .build();
+        this.rateLimitingBucket = newBucket(rate);
+        this.lastSendNanos = System.nanoTime() - IDLE_PERIOD_NANOS;
+        if (rateController != null) {
+            drainExecutor.scheduleWithFixedDelay(
+                    this::adjustRate, adjustmentInterval.toNanos(), adjustmentInterval.toNanos(), NANOSECONDS
+            );
+        }
+
+        final var tags = Tags.of(
+                "host", serverCoordinates.getHost(),
+                "port", String.valueOf(serverCoordinates.getPort())
+        );
+        meterRegistry
+                .gauge("pushy.notifications.ratelimiting.queued", tags, queuedNotifications, PendingNotifications::get);
+        meterRegistry.gauge("pushy.notifications.ratelimiting.rate", tags, this.rate);
+        this.waitTimer = Timer.builder("pushy.notifications.ratelimiting.wait")
+                .description("time spent by notifications waiting for the rate limit")
+                .tags(tags)
+                .register(meterRegistry);
+        this.gapTimer = Timer.builder("pushy.notifications.ratelimiting.gap")
+                .description("time between two consecutive sends while notifications are queued")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     @Override
     public void sendNotification(final ApnsPushNotification notification,
             final ApnsResponseHandler responseHandler) {
-
-        try {
-            semaphore.acquire();
-            rateLimitingBucket.asBlocking().consume(1);
-        } catch (final InterruptedException e) {
-            log.error("error during rate limiting process", e);
-            return;
+        queue.add(new QueuedNotification(notification, responseHandler, System.nanoTime()));
+        queuedNotifications.increment();
+        if (drainExecutor.isShutdown()) {
+            completeQueuedNotifications();
+        } else if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                drainExecutor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                // closed concurrently
+                completeQueuedNotifications();
+            }
         }
-        final var limitedHandler = new ApnsResponseHandler() {
+    }
 
-            @Override
-            public void onSuccess() {
-                semaphore.release();
-                responseHandler.onSuccess();
+    /**
+     * Sends queued notifications while the rate limit allows it, then schedules the
+     * next drain when the bucket will be refilled.
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        QueuedNotification queuedNotification;
+        while (!drainExecutor.isShutdown() && (queuedNotification = queue.peek()) != null) {
+            if (queuedNotification.getQueuedAtNanos() > lastSendNanos
+                    && System.nanoTime() - lastSendNanos >= IDLE_PERIOD_NANOS) {
+                // the bucket is full after an idle period: a new one starts the refill
+                // intervals with the first notification of this busy period
+                rateLimitingBucket = newBucket(rate.get());
             }
-
-            @Override
-            public void onRejection(final RejectionReason reason) {
-                semaphore.release();
-                responseHandler.onRejection(reason);
+            final var probe = rateLimitingBucket.tryConsumeAndReturnRemaining(1);
+            if (!probe.isConsumed()) {
+                rateLimited = true;
+                if (drainScheduled.compareAndSet(false, true)) {
+                    drainExecutor.schedule(this::drain, probe.getNanosToWaitForRefill(), NANOSECONDS);
+                }
+                return;
             }
-
-            @Override
-            public void onInactive(RejectionReason reason) {
-                semaphore.release();
-                responseHandler.onInactive(reason);
+            queue.poll();
+            queuedNotifications.decrement();
+            final var now = System.nanoTime();
+            waitTimer.record(now - queuedNotification.getQueuedAtNanos(), NANOSECONDS);
+            if (queuedNotification.getQueuedAtNanos() <= lastSendNanos) {
+                // the notification was waiting for the previous one to be sent
+                gapTimer.record(now - lastSendNanos, NANOSECONDS);
             }
+            lastSendNanos = now;
+            try {
+                queuedNotification.getHandler().onDispatched();
+                delegate.sendNotification(
+                        queuedNotification.getNotification(),
+                        rateController == null ? queuedNotification.getHandler()
+                                : new RateControllingHandler(queuedNotification.getHandler(), now)
+                );
+            } catch (final Exception e) {
+                log.error("Unable to send notification with {}", delegate, e);
+                queuedNotification.getHandler().onError(e);
+            }
+        }
+    }
 
-            @Override
-            public void onError(final Throwable reason) {
-                semaphore.release();
-                responseHandler.onError(reason);
+    /**
+     * Completes the notifications which will never be sent by this template.
+     */
+    private void completeQueuedNotifications() {
+        QueuedNotification queuedNotification;
+        while ((queuedNotification = queue.poll()) != null) {
+            queuedNotifications.decrement();
+            try {
+                queuedNotification.getHandler().onUnavailable();
+            } catch (final Exception e) {
+                log.error("Unable to complete notification queued by {}", this, e);
             }
-        };
-        delegate.sendNotification(notification, limitedHandler);
+        }
+    }
+
+    private LocalBucket newBucket(final int rate) {
+        return Bucket.builder()
+                .addLimit(limitForRate.apply(rate))
+                .withNanosecondPrecision()
+                .build();
+    }
+
+    private void adjustRate() {
+        final var currentRate = rate.get();
+        // notifications still queued wait for the rate limit even if the bucket has
+        // not been found empty yet
+        final var nextRate = rateController.nextRate(currentRate, rateLimited || !queue.isEmpty());
+        rateLimited = false;
+        if (nextRate != currentRate) {
+            log.debug("{} rate changes from {} to {} notifications per second", this, currentRate, nextRate);
+            rateLimitingBucket.replaceConfiguration(
+                    BucketConfiguration.builder()
+                            .addLimit(limitForRate.apply(nextRate))
+                            .build(),
+                    AS_IS
+            );
+            rate.set(nextRate);
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+
+    @Override
+    public CompletableFuture<Void> warmUp(final ApnsPushNotification probe) {
+        return delegate.warmUp(probe);
+    }
+
+    @Override
+    public boolean hasQueuedNotifications() {
+        return queuedNotifications.get() != 0;
     }
 
     @Override
-    public void waitUntilNoActivity(final Duration toleranceDuration) {
-        delegate.waitUntilNoActivity(toleranceDuration);
+    public int waitUntilNoActivity(final Duration timeout) {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        log.info("{} has {} queued notifications", this, queuedNotifications.get());
+        final var queued = queuedNotifications.awaitNone(timeout);
+        final var remainingTime = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+        return queued + delegate.waitUntilNoActivity(remainingTime);
     }
 
     @Override
     public void close() throws Exception {
+        drainExecutor.shutdownNow();
+        if (!drainExecutor.awaitTermination(DRAIN_TERMINATION_TIMEOUT.toNanos(), NANOSECONDS)) {
+            log.warn("{} is still sending a notification after {}", this, DRAIN_TERMINATION_TIMEOUT);
+        }
+        if (hasQueuedNotifications()) {
+            log.info("{} completes {} queued notifications as unavailable", this, queuedNotifications.get());
+        }
+        completeQueuedNotifications();
         delegate.close();
     }
 
@@ -98,4 +267,51 @@ public class RateLimitingApnsTemplate implements ApnsOperations<ApnsResponseHand
     public String toString() {
         return String.format("RateLimiting(%s)", delegate);
     }
+
+    @RequiredArgsConstructor
+    private class RateControllingHandler implements ApnsResponseHandler {
+
+        private final ApnsResponseHandler responseHandler;
+
+        private final long sentAtNanos;
+
+        @Override
+        public void onSuccess() {
+            rateController.onResponse(System.nanoTime() - sentAtNanos, NONE);
+            responseHandler.onSuccess();
+        }
+
+        @Override
+        public void onRejection(final RejectionReason reason) {
+            rateController.onResponse(System.nanoTime() - sentAtNanos, reason);
+            responseHandler.onRejection(reason);
+        }
+
+        @Override
+        public void onInactive(final RejectionReason reason) {
+            rateController.onResponse(System.nanoTime() - sentAtNanos, reason);
+            responseHandler.onInactive(reason);
+        }
+
+        @Override
+        public void onError(final Throwable cause) {
+            rateController.onError();
+            responseHandler.onError(cause);
+        }
+
+        @Override
+        public void onUnavailable() {
+            responseHandler.onUnavailable();
+        }
+    }
+
+    @Value
+    private static class QueuedNotification {
+
+        ApnsPushNotification notification;
+
+        ApnsResponseHandler handler;
+
+        long queuedAtNanos;
+    }
 }
@@ -2,19 +2,40 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.configuration;
 
 import com.eatthepath.pushy.apns.ApnsClientBuilder;
 import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import com.eatthepath.pushy.apns.auth.AuthenticationToken;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.MaxConcurrentStreamsFrameLogger;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.MicrometerApnsClientMetricsListener;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.*;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Refill;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.annotation.PreDestroy;
 
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
-import static java.util.stream.Collectors.toUnmodifiableList;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.RateLimiting.Pacing.SMOOTH;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @Slf4j
 @Configuration
@@ -25,6 +46,8 @@ public class ApnsClientConfiguration {
 
     private final MeterRegistry meterRegistry;
 
+    private EventLoopGroup apnsEventLoopGroup;
+
     private ApnsOperations<ApnsResponseHandler> buildMeasureApnsTemplate(
             final RobertPushServerProperties.ApnsClient apnsClientProperties) {
 
@@ -39,16 +62,28 @@ public class ApnsClientConfiguration {
         );
 
         try (final var authTokenFile = this.robertPushServerProperties.getApns().getAuthTokenFile().getInputStream()) {
+            final var signingKey = ApnsSigningKey.loadFromInputStream(
+                    authTokenFile,
+                    this.robertPushServerProperties.getApns().getTeamId(),
+                    this.robertPushServerProperties.getApns().getAuthKeyId()
+            );
+            // sign a first token so that the signature provider is initialized before
+            // the connections sign their own authentication token
+            new AuthenticationToken(signingKey, Instant.now());
             final var apnsClientBuilder = new ApnsClientBuilder()
                     .setApnsServer(apnsClientProperties.getHost(), apnsClientProperties.getPort())
-                    .setSigningKey(
-                            ApnsSigningKey.loadFromInputStream(
-                                    authTokenFile,
-                                    this.robertPushServerProperties.getApns().getTeamId(),
-                                    this.robertPushServerProperties.getApns().getAuthKeyId()
-                            )
-                    )
-                    .setMetricsListener(listener);
+                    .setSigningKey(signingKey)
+                    .setMetricsListener(listener)
+                    .setFrameLogger(new MaxConcurrentStreamsFrameLogger(meterRegistry, apnsServerCoordinates))
+                    .setEventLoopGroup(apnsEventLoopGroup());
+
+            final var concurrentConnections = apnsClientProperties.getConcurrentConnections() != null
+                    ? apnsClientProperties.getConcurrentConnections()
+                    : 1;
+            apnsClientBuilder.setConcurrentConnections(concurrentConnections);
+            if (apnsClientProperties.getIdlePingInterval() != null) {
+                apnsClientBuilder.setIdlePingInterval(apnsClientProperties.getIdlePingInterval());
+            }
 
             if (robertPushServerProperties.getApns().getTrustedClientCertificateChain() != null) {
                 apnsClientBuilder.setTrustedServerCertificateChain(
@@ -59,13 +94,35 @@ public class ApnsClientConfiguration {
             final var apnsTemplate = new ApnsTemplate(
                     apnsServerCoordinates,
                     apnsClientBuilder.build(),
-                    robertPushServerProperties.getApns().getInactiveRejectionReason()
+                    concurrentConnections,
+                    robertPushServerProperties.getApns().getInactiveRejectionReason(),
+                    apnsResponseExecutor(),
+                    listener::getOpenConnections
             );
-            return new MonitoringApnsTemplate(
+            final var monitoringApnsTemplate = new MonitoringApnsTemplate(
                     apnsTemplate,
                     apnsServerCoordinates,
                     meterRegistry
             );
+            final var circuitBreaker = robertPushServerProperties.getCircuitBreaker();
+            if (!circuitBreaker.isEnabled()) {
+                return monitoringApnsTemplate;
+            }
+            return new CircuitBreakingApnsTemplate(
+                    CircuitBreaker.builder()
+                            .failureRateThreshold(circuitBreaker.getFailureRateThreshold())
+                            .slowCallDuration(circuitBreaker.getSlowCallDuration())
+                            .slowCallRateThreshold(circuitBreaker.getSlowCallRateThreshold())
+                            .slidingWindowSize(circuitBreaker.getSlidingWindowSize())
+                            .minimumNumberOfCalls(circuitBreaker.getMinimumNumberOfCalls())
+                            .waitDurationInOpenState(circuitBreaker.getWaitDurationInOpenState())
+                            .permittedCallsInHalfOpenState(circuitBreaker.getPermittedCallsInHalfOpenState())
+                            .failureRejectionReasons(circuitBreaker.getFailureRejectionReasons())
+                            .build(),
+                    apnsServerCoordinates,
+                    meterRegistry,
+                    monitoringApnsTemplate
+            );
 
         } catch (final IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException(
@@ -75,21 +132,124 @@ public class ApnsClientConfiguration {
     }
 
     private ApnsOperations<ApnsResponseHandler> buildRateLimitingTemplate(
-            final ApnsOperations<ApnsResponseHandler> apnsOperations) {
+            final RobertPushServerProperties.ApnsClient apnsClientProperties) {
+        final var adaptive = robertPushServerProperties.getRateLimiting().getAdaptive();
+        final var rateController = adaptive.isEnabled() ? AimdRateController.builder()
+                .floor(adaptive.getFloor())
+                .ceiling(adaptive.getCeiling())
+                .increaseStep(adaptive.getIncreaseStep())
+                .decreaseFactor(adaptive.getDecreaseFactor())
+                .latencySlo(adaptive.getLatencySlo())
+                .congestionRejectionReasons(adaptive.getCongestionRejectionReasons())
+                .build() : null;
+        final var maxNotificationsPerSecond = robertPushServerProperties.getMaxNotificationsPerSecond();
         return new RateLimitingApnsTemplate(
-                robertPushServerProperties.getMaxNotificationsPerSecond(),
-                robertPushServerProperties.getMaxNumberOfPendingNotifications(),
-                apnsOperations
+                rateController != null ? rateController.initialRate(maxNotificationsPerSecond)
+                        : maxNotificationsPerSecond,
+                this::buildRateLimit,
+                rateController,
+                adaptive.getAdjustmentInterval(),
+                new ApnsServerCoordinates(apnsClientProperties.getHost(), apnsClientProperties.getPort()),
+                meterRegistry,
+                buildMeasureApnsTemplate(apnsClientProperties)
+        );
+    }
+
+    private Bandwidth buildRateLimit(final int maxNotificationsPerSecond) {
+        final var rateLimiting = robertPushServerProperties.getRateLimiting();
+        if (rateLimiting.getPacing() == SMOOTH) {
+            return Bandwidth.classic(
+                    rateLimiting.getBurst(),
+                    Refill.greedy(maxNotificationsPerSecond, Duration.ofSeconds(1))
+            );
+        }
+        return Bandwidth.classic(
+                maxNotificationsPerSecond,
+                Refill.intervally(maxNotificationsPerSecond, Duration.ofSeconds(1))
+        );
+    }
+
+    /**
+     * Bounded executor handling APNs responses, exposing its queue size and task
+     * latency with the "apns.response" executor metrics.
+     * <p>
+     * Responses beyond the queue capacity are rejected, handled on the pushy event
+     * loop thread by the {@link ApnsTemplate}, and counted by the
+     * "apns.response.rejected" counter.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService apnsResponseExecutor() {
+        final var executorProperties = robertPushServerProperties.getApns().getResponseExecutor();
+        final var rejectedResponses = meterRegistry.counter("apns.response.rejected");
+        final var executor = new ThreadPoolExecutor(
+                executorProperties.getThreads(),
+                executorProperties.getThreads(),
+                0L, MILLISECONDS,
+                new ArrayBlockingQueue<>(executorProperties.getQueueCapacity()),
+                new CustomizableThreadFactory("apns-response-"),
+                (task, rejectingExecutor) -> {
+                    rejectedResponses.increment();
+                    throw new RejectedExecutionException("APNs response executor queue is full");
+                }
         );
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "apns.response");
+    }
+
+    /**
+     * Event loop group shared by every APNs client, using the native epoll
+     * transport when it is enabled and available.
+     * <p>
+     * It is not exposed as a bean: an event loop group is a
+     * {@link java.util.concurrent.ScheduledExecutorService} and would be used to
+     * run the scheduled tasks.
+     */
+    private synchronized EventLoopGroup apnsEventLoopGroup() {
+        if (apnsEventLoopGroup == null) {
+            final var eventLoopProperties = robertPushServerProperties.getApns().getEventLoop();
+            final var threadFactory = new CustomizableThreadFactory("apns-event-loop-");
+            if (eventLoopProperties.isNativeTransport() && Epoll.isAvailable()) {
+                log.info("APNs clients use the native epoll transport");
+                apnsEventLoopGroup = new EpollEventLoopGroup(eventLoopProperties.getThreads(), threadFactory);
+            } else {
+                apnsEventLoopGroup = new NioEventLoopGroup(eventLoopProperties.getThreads(), threadFactory);
+            }
+        }
+        return apnsEventLoopGroup;
+    }
+
+    @PreDestroy
+    public synchronized void shutdownApnsEventLoopGroup() {
+        if (apnsEventLoopGroup != null) {
+            apnsEventLoopGroup.shutdownGracefully();
+        }
     }
 
+    /**
+     * The templates are closed before the
+     * {@link fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushOutcomeBuffer},
+     * so that the outcomes of the responses received while closing are written.
+     */
     @Bean
+    @DependsOn("pushOutcomeBuffer")
     public ApnsOperations<FailoverApnsResponseHandler> apnsTemplate() {
-        final var measuredRateLimitedApnsTemplates = robertPushServerProperties.getApns().getClients().stream()
-                .map(this::buildMeasureApnsTemplate)
-                .map(this::buildRateLimitingTemplate)
-                .collect(toUnmodifiableList());
+        final var measuredRateLimitedApnsTemplates = new LinkedHashMap<ApnsServerCoordinates, ApnsOperations<ApnsResponseHandler>>();
+        robertPushServerProperties.getApns().getClients().forEach(
+                apnsClientProperties -> measuredRateLimitedApnsTemplates.put(
+                        new ApnsServerCoordinates(apnsClientProperties.getHost(), apnsClientProperties.getPort()),
+                        buildRateLimitingTemplate(apnsClientProperties)
+                )
+        );
 
-        return new FailoverApnsTemplate(measuredRateLimitedApnsTemplates);
+        final var hedging = robertPushServerProperties.getHedging();
+        return new BackpressureApnsTemplate(
+                robertPushServerProperties.getMaxNumberOfPendingNotifications(),
+                robertPushServerProperties.getBatchTerminationMaxQueueingTime(),
+                new FailoverApnsTemplate(
+                        measuredRateLimitedApnsTemplates,
+                        hedging.isEnabled() ? hedging.getDelay() : null,
+                        hedging.getMaxPendingHedges(),
+                        meterRegistry
+                )
+        );
     }
 }
@@ -3,11 +3,14 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.configuration;
 import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
 import lombok.Builder;
 import lombok.Value;
+import org.hibernate.validator.constraints.time.DurationMax;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
 import org.springframework.core.io.Resource;
 
 import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
@@ -36,12 +39,400 @@ public class RobertPushServerProperties {
     @Positive
     int maxNotificationsPerSecond;
 
+    @Valid
+    RobertPushServerProperties.RateLimiting rateLimiting;
+
+    /**
+     * Maximum time to wait for pending notifications at the end of a batch, once
+     * the notifications waiting for the rate limit have been sent.
+     */
     @NotNull
     Duration batchTerminationGraceTime;
 
+    /**
+     * Maximum time to wait at the end of a batch for the notifications waiting for
+     * the rate limit to be sent, before the grace time starts.
+     */
+    @NotNull
+    Duration batchTerminationMaxQueueingTime;
+
+    @Valid
+    RobertPushServerProperties.Scheduler scheduler;
+
+    @Valid
+    RobertPushServerProperties.TimingWheel timingWheel;
+
+    @Valid
+    RobertPushServerProperties.Streaming streaming;
+
+    @Valid
+    RobertPushServerProperties.SlotAllocator slotAllocator;
+
+    @Valid
+    RobertPushServerProperties.OutcomeBuffer outcomeBuffer;
+
+    @Valid
+    RobertPushServerProperties.LeaderElection leaderElection;
+
+    @Valid
+    RobertPushServerProperties.Hedging hedging;
+
+    @Valid
+    RobertPushServerProperties.CircuitBreaker circuitBreaker;
+
     @Valid
     RobertPushServerProperties.Apns apns;
 
+    @Value
+    @Builder
+    public static class Scheduler {
+
+        /**
+         * Delay between the end of a run and the start of the next one when
+         * {@link Trigger#FIXED_DELAY} is used, or when notifications are still due
+         * after a run with {@link Trigger#NEXT_DUE}.
+         */
+        @Positive
+        long delayInMs;
+
+        @NotNull
+        Trigger trigger;
+
+        /**
+         * Maximum time to wait for the next due notification when
+         * {@link Trigger#NEXT_DUE} is used, it bounds the delay to notice notifications
+         * registered meanwhile.
+         */
+        @NotNull
+        Duration maxIdleInterval;
+
+        @NotNull
+        Mode mode;
+
+        /**
+         * Maximum number of notifications claimed by a single statement when
+         * {@link Mode#CLAIM} is used.
+         */
+        @Positive
+        int claimChunkSize;
+
+        /**
+         * Maximum number of due notifications read by a single statement when
+         * {@link Mode#SELECT_AND_UPDATE} or {@link Mode#MINUTE_BUCKET} is used.
+         */
+        @Positive
+        int readChunkSize;
+
+        public enum Mode {
+            /**
+             * Due notifications are read by chunks using keyset pagination and each one is
+             * rescheduled by its own update statement before being sent.
+             */
+            SELECT_AND_UPDATE,
+            /**
+             * Due notifications are rescheduled by chunks with a single
+             * {@code update ... returning} statement computing the next push date in the
+             * database, the returned rows are then sent. Several scheduler instances can
+             * run concurrently in this mode.
+             */
+            CLAIM,
+            /**
+             * Notifications planned in the next timing-wheel.horizon are loaded in the
+             * background into a timing wheel, each minute's notifications are dispatched
+             * when the minute starts and rescheduled one by one, unless they have been
+             * unregistered or rescheduled meanwhile. The trigger is then ignored.
+             */
+            TIMING_WHEEL,
+            /**
+             * Due notifications are claimed by chunks and sent continuously by an always-on
+             * pipeline, see {@code NotificationPipeline}. The trigger is then ignored.
+             */
+            STREAMING,
+            /**
+             * Each notification is assigned once a stable local push minute of the day,
+             * derived from its id, and is sent every day at this minute without being
+             * rescheduled, see {@code PushMinuteBuckets}. Notifications are sent at the
+             * start of each minute and the trigger is then ignored. Push minutes are not
+             * reassigned when min-push-hour or max-push-hour change, they have to be reset
+             * to null in the database.
+             */
+            MINUTE_BUCKET
+        }
+
+        public enum Trigger {
+            /**
+             * Runs are separated by delay-in-ms.
+             */
+            FIXED_DELAY,
+            /**
+             * The next run starts when the earliest next push date is reached, at most
+             * max-idle-interval after the end of the previous run.
+             */
+            NEXT_DUE
+        }
+    }
+
+    @Value
+    @Builder
+    public static class TimingWheel {
+
+        /**
+         * How far ahead planned notifications are loaded, the wheel holds less than a
+         * day of notifications.
+         */
+        @NotNull
+        @DurationMax(hours = 23)
+        Duration horizon;
+
+        /**
+         * Maximum number of notifications held by the wheel.
+         */
+        @Positive
+        int maxSize;
+
+        /**
+         * Delay between the end of a refill and the start of the next one.
+         */
+        @NotNull
+        Duration refillInterval;
+    }
+
+    @Value
+    @Builder
+    public static class Streaming {
+
+        /**
+         * Maximum number of claimed notifications waiting to be sent.
+         */
+        @Positive
+        int queueCapacity;
+
+        /**
+         * Delay before claiming again when no more notifications are due.
+         */
+        @NotNull
+        Duration idlePollInterval;
+    }
+
+    @Value
+    @Builder
+    public static class SlotAllocator {
+
+        /**
+         * When enabled, the next push date of a sent notification is the least loaded
+         * minute of tomorrow's push window instead of a random one, see
+         * {@code PushSlotAllocator}. Notifications claimed by the database in
+         * {@link Scheduler.Mode#CLAIM} and {@link Scheduler.Mode#STREAMING} modes keep
+         * a random next push date.
+         */
+        boolean enabled;
+
+        /**
+         * Delay after which the planned notifications per minute are counted again from
+         * the database, to take into account registrations and other instances.
+         */
+        @NotNull
+        Duration refreshInterval;
+
+        /**
+         * Number of scheduler instances sending notifications at the same time, each
+         * one adding its rate limits to the send capacity. Ignored when leader election
+         * is enabled, only the leader sends notifications.
+         */
+        @Positive
+        int sendingInstances;
+    }
+
+    @Value
+    @Builder
+    public static class RateLimiting {
+
+        @NotNull
+        Pacing pacing;
+
+        /**
+         * Number of notifications that can be sent at once after an idle period when
+         * {@link Pacing#SMOOTH} is used.
+         */
+        @Positive
+        int burst;
+
+        @Valid
+        Adaptive adaptive;
+
+        public enum Pacing {
+            /**
+             * Every second starts with a burst of max-notifications-per-second
+             * notifications, seconds being counted from the first notification sent after
+             * an idle period.
+             */
+            PER_SECOND_BURST,
+            /**
+             * Notifications are evenly spread, one every 1/max-notifications-per-second
+             * second.
+             */
+            SMOOTH
+        }
+    }
+
+    /**
+     * Adjusts the rate of each APNs server between {@link #floor} and
+     * {@link #ceiling} notifications per second with an additive increase /
+     * multiplicative decrease policy, starting from max-notifications-per-second.
+     * The rate only increases while notifications wait for the rate limit.
+     */
+    @Value
+    @Builder
+    public static class Adaptive {
+
+        boolean enabled;
+
+        @Positive
+        int floor;
+
+        @Positive
+        int ceiling;
+
+        @Positive
+        int increaseStep;
+
+        @DecimalMin("0.1")
+        @DecimalMax("0.9")
+        double decreaseFactor;
+
+        /**
+         * Responses received after this latency decrease the rate.
+         */
+        @NotNull
+        Duration latencySlo;
+
+        /**
+         * Rejection reasons decreasing the rate.
+         */
+        List<RejectionReason> congestionRejectionReasons;
+
+        @NotNull
+        Duration adjustmentInterval;
+    }
+
+    @Value
+    @Builder
+    public static class OutcomeBuffer {
+
+        /**
+         * Number of buffered outcomes triggering a write to the database.
+         */
+        @Positive
+        int maxSize;
+
+        /**
+         * Maximum delay before buffered outcomes are written to the database.
+         */
+        @NotNull
+        Duration maxAge;
+
+        /**
+         * Maximum number of buffered outcomes, when writes are slower than responses.
+         * Outcomes beyond it are dropped.
+         */
+        @Positive
+        int capacity;
+    }
+
+    @Value
+    @Builder
+    public static class LeaderElection {
+
+        /**
+         * When enabled, only the instance holding the Postgres advisory lock
+         * {@link #lockId} sends notifications.
+         */
+        boolean enabled;
+
+        long lockId;
+    }
+
+    @Value
+    @Builder
+    public static class Hedging {
+
+        /**
+         * When enabled, a notification to a token whose accepting server is unknown is
+         * also sent to the next server when the first one did not answer after
+         * {@link #delay}.
+         */
+        boolean enabled;
+
+        @NotNull
+        Duration delay;
+
+        /**
+         * Maximum number of hedged notifications waiting for their response.
+         */
+        @Positive
+        int maxPendingHedges;
+    }
+
+    /**
+     * Stops sending notifications to an APNs server while the rate of failed or
+     * slow responses among the last {@link #slidingWindowSize} ones is above the
+     * thresholds.
+     */
+    @Value
+    @Builder
+    public static class CircuitBreaker {
+
+        boolean enabled;
+
+        /**
+         * Percentage of failed responses opening the breaker.
+         */
+        @Min(1)
+        @Max(100)
+        int failureRateThreshold;
+
+        /**
+         * Responses received after this latency are slow.
+         */
+        @NotNull
+        Duration slowCallDuration;
+
+        /**
+         * Percentage of slow responses opening the breaker.
+         */
+        @Min(1)
+        @Max(100)
+        int slowCallRateThreshold;
+
+        @Positive
+        int slidingWindowSize;
+
+        /**
+         * Number of responses required before computing the rates.
+         */
+        @Positive
+        int minimumNumberOfCalls;
+
+        /**
+         * Time during which no notification is sent to the server before trial
+         * notifications are allowed.
+         */
+        @NotNull
+        Duration waitDurationInOpenState;
+
+        /**
+         * Number of trial notifications deciding whether the breaker closes or opens
+         * again.
+         */
+        @Positive
+        int permittedCallsInHalfOpenState;
+
+        /**
+         * Rejection reasons counted as failures, in addition to errors.
+         */
+        List<RejectionReason> failureRejectionReasons;
+    }
+
     @Value
     @Builder
     public static class Apns {
@@ -65,6 +456,69 @@ public class RobertPushServerProperties {
 
         Resource trustedClientCertificateChain;
 
+        @Valid
+        ResponseExecutor responseExecutor;
+
+        @Valid
+        EventLoop eventLoop;
+
+        @Valid
+        WarmUp warmUp;
+
+    }
+
+    @Value
+    @Builder
+    public static class ResponseExecutor {
+
+        /**
+         * Number of threads handling APNs responses.
+         */
+        @Positive
+        int threads;
+
+        /**
+         * Maximum number of APNs responses waiting for a thread, responses beyond this
+         * capacity are handled on the pushy event loop thread.
+         */
+        @Positive
+        int queueCapacity;
+    }
+
+    /**
+     * Event loop group shared by the clients of every APNs server.
+     */
+    @Value
+    @Builder
+    public static class EventLoop {
+
+        @Positive
+        int threads;
+
+        /**
+         * Uses the native epoll transport when it is available, the NIO transport
+         * otherwise.
+         */
+        boolean nativeTransport;
+    }
+
+    @Value
+    @Builder
+    public static class WarmUp {
+
+        /**
+         * When enabled, the connections to every APNs server are opened at startup,
+         * before notifications are scheduled, by sending a probe notification to an
+         * invalid device token on each connection.
+         */
+        boolean enabled;
+
+        /**
+         * Maximum time to wait for the connections, the application is ready afterwards
+         * even if some connections are not.
+         */
+        @NotNull
+        Duration timeout;
     }
 
     @Value
@@ -77,5 +531,18 @@ public class RobertPushServerProperties {
         @Positive
         int port;
 
+        /**
+         * Number of HTTP/2 connections opened to the server, pushy opens a single
+         * connection when not set.
+         */
+        @Positive
+        Integer concurrentConnections;
+
+        /**
+         * Interval of inactivity after which a ping is sent on a connection, pushy
+         * default interval is used when not set.
+         */
+        Duration idlePingInterval;
+
     }
 }
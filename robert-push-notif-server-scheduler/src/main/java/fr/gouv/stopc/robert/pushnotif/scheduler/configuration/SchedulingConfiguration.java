@@ -0,0 +1,74 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.configuration;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.NextDueTrigger;
+import fr.gouv.stopc.robert.pushnotif.scheduler.PushPrefetcher;
+import fr.gouv.stopc.robert.pushnotif.scheduler.Scheduler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.task.TaskSchedulerBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.MINUTE_BUCKET;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.STREAMING;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Mode.TIMING_WHEEL;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties.Scheduler.Trigger.NEXT_DUE;
+
+/**
+ * Registers the notifications run according to the configured
+ * {@link RobertPushServerProperties.Scheduler.Trigger}, or at the start of each
+ * minute beside the timing wheel refill when
+ * {@link RobertPushServerProperties.Scheduler.Mode#TIMING_WHEEL} is used, or at
+ * the start of each minute when
+ * {@link RobertPushServerProperties.Scheduler.Mode#MINUTE_BUCKET} is used. No
+ * run is registered when
+ * {@link RobertPushServerProperties.Scheduler.Mode#STREAMING} is used.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class SchedulingConfiguration implements SchedulingConfigurer {
+
+    private final Scheduler scheduler;
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final PushPrefetcher pushPrefetcher;
+
+    private final RobertPushServerProperties robertPushServerProperties;
+
+    /**
+     * The task scheduler configured by the spring.task.scheduling properties, which
+     * is not auto-configured beside a {@link SchedulingConfigurer}.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(final TaskSchedulerBuilder taskSchedulerBuilder) {
+        return taskSchedulerBuilder.build();
+    }
+
+    @Override
+    public void configureTasks(final ScheduledTaskRegistrar taskRegistrar) {
+        final var schedulerProperties = robertPushServerProperties.getScheduler();
+        if (schedulerProperties.getMode() == STREAMING) {
+            return;
+        }
+        if (schedulerProperties.getMode() == TIMING_WHEEL) {
+            taskRegistrar.addCronTask(scheduler::sendNotifications, "0 * * * * *");
+            taskRegistrar.addFixedDelayTask(
+                    pushPrefetcher::refill,
+                    robertPushServerProperties.getTimingWheel().getRefillInterval().toMillis()
+            );
+        } else if (schedulerProperties.getMode() == MINUTE_BUCKET) {
+            taskRegistrar.addCronTask(scheduler::sendNotifications, "0 * * * * *");
+        } else if (schedulerProperties.getTrigger() == NEXT_DUE) {
+            taskRegistrar.addTriggerTask(
+                    scheduler::sendNotifications,
+                    new NextDueTrigger(pushInfoRepository, schedulerProperties)
+            );
+        } else {
+            taskRegistrar.addFixedDelayTask(scheduler::sendNotifications, schedulerProperties.getDelayInMs());
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package fr.gouv.stopc.robert.pushnotif.scheduler.repository;
 
 import fr.gouv.stopc.robert.pushnotif.scheduler.repository.model.PushInfo;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.Optional;
+import java.util.OptionalLong;
 
 import static org.springframework.transaction.annotation.Propagation.REQUIRES_NEW;
 
@@ -21,19 +26,234 @@ public class PushInfoRepository {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
 
-    @Transactional
-    public void forEachNotificationToBeSent(final Consumer<PushInfo> pushInfoHandler) {
+    /**
+     * Returns at most {@code limit} due notifications ordered by
+     * {@code (next_planned_push, id)} and located after the given one in this
+     * order, or from the first one when {@code after} is null.
+     * <p>
+     * Each chunk is read in its own short transaction so that walking through all
+     * due notifications does not hold a cursor nor a connection during the whole
+     * scheduler run.
+     */
+    @Timed(value = "push.notifier.fetch.duration", description = "time spent fetching a chunk of due notifications")
+    @Transactional(propagation = REQUIRES_NEW, readOnly = true)
+    public List<PushInfo> findNotificationsToBeSent(final PushInfo after, final int limit) {
+        return findNotifications("next_planned_push <= now() ", new MapSqlParameterSource(), after, limit);
+    }
+
+    /**
+     * Returns at most {@code limit} notifications planned until the given instant,
+     * already due ones included, ordered by {@code (next_planned_push, id)} and
+     * located after the given one in this order, or from the first one when
+     * {@code after} is null.
+     */
+    @Timed(value = "push.notifier.prefetch.duration", description = "time spent prefetching a chunk of upcoming notifications")
+    @Transactional(propagation = REQUIRES_NEW, readOnly = true)
+    public List<PushInfo> findNotificationsPlannedUntil(final PushInfo after, final Instant until, final int limit) {
+        return findNotifications(
+                "next_planned_push <= :until ", new MapSqlParameterSource("until", Timestamp.from(until)), after,
+                limit
+        );
+    }
+
+    private List<PushInfo> findNotifications(final String plannedCondition, final MapSqlParameterSource parameters,
+            final PushInfo after, final int limit) {
+        parameters.addValue("limit", limit);
+        var keysetCondition = "";
+        if (after != null) {
+            keysetCondition = "and (next_planned_push, id) > (:afterNextPlannedPush, :afterId) ";
+            parameters.addValue("afterNextPlannedPush", Timestamp.from(after.getNextPlannedPush()))
+                    .addValue("afterId", after.getId());
+        }
+        return jdbcTemplate.query(
+                "select id, token, timezone, next_planned_push, last_accepting_server from push " +
+                        "where active = true and deleted = false and " + plannedCondition +
+                        keysetCondition +
+                        "order by next_planned_push, id " +
+                        "limit :limit",
+                parameters,
+                (rs, rowNum) -> PushInfo.builder()
+                        .id(rs.getLong("id"))
+                        .timezone(rs.getString("timezone"))
+                        .token(rs.getBytes("token"))
+                        .nextPlannedPush(rs.getTimestamp("next_planned_push").toInstant())
+                        .lastAcceptingServer(rs.getString("last_accepting_server"))
+                        .build()
+        );
+    }
+
+    /**
+     * Returns the earliest next push date of active notifications, or an empty
+     * optional when there is none. The due notifications index makes it a single
+     * index lookup.
+     */
+    @Transactional(propagation = REQUIRES_NEW, readOnly = true)
+    public Optional<Instant> findNextPlannedPush() {
+        final var nextPlannedPush = jdbcTemplate.getJdbcTemplate().queryForObject(
+                "select min(next_planned_push) from push where active = true and deleted = false",
+                Timestamp.class
+        );
+        return Optional.ofNullable(nextPlannedPush).map(Timestamp::toInstant);
+    }
+
+    /**
+     * Assigns a stable local push minute of the day to at most {@code limit}
+     * notifications without one, derived from their id so that push minutes are
+     * evenly spread over the {@code windowMinutes} minutes following
+     * {@code minPushHour}.
+     *
+     * @return the number of notifications assigned a push minute
+     */
+    @Transactional(propagation = REQUIRES_NEW)
+    public int assignPushMinutes(final int minPushHour, final int windowMinutes, final int limit) {
+        return jdbcTemplate.update(
+                "update push set push_minute = (:minPushHour * 60 + mod(id, :windowMinutes)) % 1440 " +
+                        "where id in (select id from push where push_minute is null limit :limit)",
+                Map.of(
+                        "minPushHour", minPushHour,
+                        "windowMinutes", windowMinutes,
+                        "limit", limit
+                )
+        );
+    }
+
+    /**
+     * Advances the last epoch minute whose buckets have been polled to
+     * {@code minute}, unless it already reached it.
+     *
+     * @return the previous last polled minute, {@code minute - 1} for the first
+     *         poll, or an empty optional when the minute has already been polled
+     */
+    @Transactional(propagation = REQUIRES_NEW)
+    public OptionalLong advanceLastPolledMinute(final long minute) {
+        return jdbcTemplate.query(
+                "update push_minute_bucket_cursor cursor set last_polled_minute = :minute " +
+                        "from (select last_polled_minute from push_minute_bucket_cursor for update) previous " +
+                        "where cursor.last_polled_minute is null or cursor.last_polled_minute < :minute " +
+                        "returning coalesce(previous.last_polled_minute, :minute - 1)",
+                Map.of("minute", minute),
+                (rs, rowNum) -> rs.getLong(1)
+        )
+                .stream()
+                .mapToLong(Long::longValue)
+                .findFirst();
+    }
+
+    /**
+     * Returns at most {@code limit} active notifications in the given buckets, made
+     * of a timezone, a local push minute of the day and the epoch minute at which
+     * the bucket is due, ordered by id and located after the given id. The next
+     * push date of the returned notifications is the due minute of their bucket.
+     */
+    @Timed(value = "push.notifier.fetch.duration", description = "time spent fetching a chunk of due notifications")
+    @Transactional(propagation = REQUIRES_NEW, readOnly = true)
+    public List<PushInfo> findNotificationsInMinuteBuckets(final String[] timezones, final Integer[] minutesOfDay,
+            final Long[] dueMinutes, final long afterId, final int limit) {
+        return jdbcTemplate.query(
+                "select push.id, push.token, push.timezone, push.last_accepting_server, bucket.due_minute " +
+                        "from push " +
+                        "join unnest(:timezones, :minutesOfDay, :dueMinutes) " +
+                        "  as bucket(timezone, minute_of_day, due_minute) " +
+                        "  on push.timezone = bucket.timezone and push.push_minute = bucket.minute_of_day " +
+                        "where push.active = true and push.deleted = false and push.id > :afterId " +
+                        "order by push.id " +
+                        "limit :limit",
+                Map.of(
+                        "timezones", timezones,
+                        "minutesOfDay", minutesOfDay,
+                        "dueMinutes", dueMinutes,
+                        "afterId", afterId,
+                        "limit", limit
+                ),
+                (rs, rowNum) -> PushInfo.builder()
+                        .id(rs.getLong("id"))
+                        .timezone(rs.getString("timezone"))
+                        .token(rs.getBytes("token"))
+                        .nextPlannedPush(Instant.ofEpochSecond(rs.getLong("due_minute") * 60))
+                        .lastAcceptingServer(rs.getString("last_accepting_server"))
+                        .build()
+        );
+    }
+
+    /**
+     * Returns the number of active notifications planned in each minute between
+     * {@code from} included and {@code until} excluded, keyed by epoch minute.
+     * Minutes without any planned notification are missing.
+     */
+    @Transactional(propagation = REQUIRES_NEW, readOnly = true)
+    public Map<Long, Integer> countPlannedPushesPerMinute(final Instant from, final Instant until) {
+        final var counts = new HashMap<Long, Integer>();
         jdbcTemplate.query(
-                "select * from push where active = true and deleted = false and next_planned_push <= now()",
+                "select floor(extract(epoch from next_planned_push) / 60)::bigint as minute, count(*) as planned " +
+                        "from push " +
+                        "where active = true and deleted = false " +
+                        "and next_planned_push >= :from and next_planned_push < :until " +
+                        "group by 1",
+                Map.of(
+                        "from", Timestamp.from(from),
+                        "until", Timestamp.from(until)
+                ),
                 rs -> {
-                    final var pushInfo = PushInfo.builder()
-                            .id(rs.getLong("id"))
-                            .timezone(rs.getString("timezone"))
-                            .token(rs.getString("token"))
-                            .build();
-                    pushInfoHandler.accept(pushInfo);
+                    counts.put(rs.getLong("minute"), rs.getInt("planned"));
                 }
         );
+        return counts;
+    }
+
+    /**
+     * Reschedules at most {@code limit} due notifications to a random minute
+     * tomorrow between {@code minPushHour} and
+     * {@code minPushHour + pushWindowHours} in their own timezone, and returns them
+     * with the push date they were due at and the one they have been rescheduled
+     * to. The next push date is computed by the database so that a whole chunk is
+     * claimed with a single statement.
+     * <p>
+     * Timezones unknown to the database fall back to UTC instead of failing the
+     * whole chunk.
+     * <p>
+     * Rows are locked with {@code for update skip locked}: several scheduler
+     * instances can claim concurrently, each one getting disjoint rows. A row
+     * rescheduled by another instance since this statement started is re-evaluated
+     * against the due condition when it is locked and is then skipped.
+     */
+    @Transactional(propagation = REQUIRES_NEW)
+    public List<PushInfo> claimNotificationsToBeSent(final int limit, final int minPushHour,
+            final int pushWindowHours) {
+        return jdbcTemplate.query(
+                "with due as ( " +
+                        "  select push.id, push.next_planned_push as due_push, coalesce(zone.name, 'UTC') as zone " +
+                        "  from push " +
+                        "  left join pg_timezone_names zone on zone.name = push.timezone " +
+                        "  where push.active = true and push.deleted = false and push.next_planned_push <= now() " +
+                        "  order by push.next_planned_push, push.id " +
+                        "  limit :limit " +
+                        "  for update of push skip locked " +
+                        ") " +
+                        "update push set next_planned_push = ( " +
+                        "    date_trunc('day', now() at time zone due.zone) + interval '1 day' " +
+                        "    + make_interval( " +
+                        "        hours => (:minPushHour + floor(random() * :pushWindowHours)::int) % 24, " +
+                        "        mins => floor(random() * 60)::int " +
+                        "    ) " +
+                        "  ) at time zone due.zone at time zone 'UTC' " +
+                        "from due " +
+                        "where push.id = due.id " +
+                        "returning push.id, push.token, push.timezone, push.last_accepting_server, due.due_push, " +
+                        "  push.next_planned_push as claimed_until",
+                Map.of(
+                        "limit", limit,
+                        "minPushHour", minPushHour,
+                        "pushWindowHours", pushWindowHours
+                ),
+                (rs, rowNum) -> PushInfo.builder()
+                        .id(rs.getLong("id"))
+                        .timezone(rs.getString("timezone"))
+                        .token(rs.getBytes("token"))
+                        .nextPlannedPush(rs.getTimestamp("due_push").toInstant())
+                        .claimedUntil(rs.getTimestamp("claimed_until").toInstant())
+                        .lastAcceptingServer(rs.getString("last_accepting_server"))
+                        .build()
+        );
     }
 
     @Transactional(propagation = REQUIRES_NEW)
@@ -47,37 +267,77 @@ public class PushInfoRepository {
     }
 
     @Transactional(propagation = REQUIRES_NEW)
-    public void updateSuccessfulPushSent(final long id) {
+    public void updateNextPlannedPushDates(final List<Long> ids, final List<Instant> nextPlannedPushes) {
         jdbcTemplate.update(
-                "update push set last_successful_push = :lastSuccessfulPush, " +
-                        "successful_push_sent = successful_push_sent + 1 " +
-                        "where id = :id",
+                "update push set next_planned_push = to_timestamp(retry.epoch_millis / 1000.0) " +
+                        "from unnest(:ids, :nextPlannedPushes) as retry(id, epoch_millis) " +
+                        "where push.id = retry.id",
                 Map.of(
-                        "id", id,
-                        "lastSuccessfulPush", Timestamp.from(Instant.now())
+                        "ids", ids.toArray(Long[]::new),
+                        "nextPlannedPushes", nextPlannedPushes.stream().map(Instant::toEpochMilli)
+                                .toArray(Long[]::new)
                 )
         );
+    }
+
+    /**
+     * Reschedules the notification to the given date if it is still active and
+     * planned at {@code due}.
+     *
+     * @return false when the notification has been unregistered, disabled or
+     *         rescheduled since it has been read
+     */
+    @Transactional(propagation = REQUIRES_NEW)
+    public boolean rescheduleIfStillPlannedAt(final long id, final Instant due, final Instant nextPlannedPush) {
+        return jdbcTemplate.update(
+                "update push set next_planned_push = :nextPlannedPushDate " +
+                        "where id = :id and next_planned_push = :due and active = true and deleted = false",
+                Map.of(
+                        "id", id,
+                        "due", Timestamp.from(due),
+                        "nextPlannedPushDate", Timestamp.from(nextPlannedPush)
+                )
+        ) == 1;
+    }
 
+    @Transactional(propagation = REQUIRES_NEW)
+    public void updateSuccessfulPushSent(final List<Long> ids, final List<String> acceptingServers) {
+        jdbcTemplate.update(
+                "update push set last_successful_push = :lastSuccessfulPush, " +
+                        "successful_push_sent = successful_push_sent + 1, " +
+                        "last_accepting_server = success.accepting_server " +
+                        "from unnest(:ids, :acceptingServers) as success(id, accepting_server) " +
+                        "where push.id = success.id",
+                Map.of(
+                        "ids", ids.toArray(Long[]::new),
+                        "lastSuccessfulPush", Timestamp.from(Instant.now()),
+                        "acceptingServers", acceptingServers.toArray(String[]::new)
+                )
+        );
     }
 
     @Transactional(propagation = REQUIRES_NEW)
-    public void updateFailure(final long id, final String failureDescription) {
+    public void updateFailure(final List<Long> ids, final List<String> failureDescriptions) {
         jdbcTemplate.update(
                 "update push set " +
                         "last_failure_push = :lastFailurePush, " +
                         "failed_push_sent = failed_push_sent + 1, " +
-                        "last_error_code = :lastErrorCode::char(255) " +
-                        "where id = :id",
+                        "last_error_code = failure.error_code::char(255) " +
+                        "from unnest(:ids, :lastErrorCodes) as failure(id, error_code) " +
+                        "where push.id = failure.id",
                 Map.of(
-                        "id", id,
+                        "ids", ids.toArray(Long[]::new),
                         "lastFailurePush", Timestamp.from(Instant.now()),
-                        "lastErrorCode", failureDescription
+                        "lastErrorCodes", failureDescriptions.toArray(String[]::new)
                 )
         );
     }
 
     @Transactional(propagation = REQUIRES_NEW)
-    public void disable(final Long id) {
-        jdbcTemplate.update("update push set active = false where id = :id", Map.of("id", id));
+    public void disable(final List<Long> ids) {
+        jdbcTemplate.update(
+                "update push set active = false where id = any(:ids)",
+                Map.of("ids", ids.toArray(Long[]::new))
+        );
     }
 }
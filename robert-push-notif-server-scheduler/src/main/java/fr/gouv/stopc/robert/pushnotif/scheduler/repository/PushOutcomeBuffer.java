@@ -0,0 +1,261 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.repository;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Collects notification outcomes in memory and writes them to the push table
+ * with batched statements, either when the buffer reaches its maximum size,
+ * when its maximum age is reached or when {@link #flush()} is explicitly
+ * called.
+ * <p>
+ * It is the outcome writer stage of the streaming pipeline: buffered outcomes
+ * are exported by the "push.pipeline.queue.depth" gauge and written ones by the
+ * "push.pipeline.processed" counter, tagged with the "write" stage.
+ * <p>
+ * A failed write is retried with an exponential backoff, outcomes still not
+ * written after {@value #MAX_WRITE_ATTEMPTS} attempts are dropped. Meanwhile,
+ * at most {@code robert.push.server.outcome-buffer.capacity} outcomes are
+ * buffered, the next ones are dropped. Dropped outcomes are counted by the
+ * "push.outcome.dropped" counter.
+ * <p>
+ * Once closed, outcomes are written as soon as they are added: the APNs
+ * templates are closed before the buffer and still receive responses.
+ */
+@Slf4j
+@Component
+public class PushOutcomeBuffer {
+
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    private static final long FIRST_RETRY_DELAY_MILLIS = 500;
+
+    private final PushInfoRepository pushInfoRepository;
+
+    private final int maxSize;
+
+    private final int capacity;
+
+    private final Counter writeCounter;
+
+    private final Counter droppedCounter;
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "push-outcome-flush")
+    );
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private final Object flushLock = new Object();
+
+    private volatile boolean closed;
+
+    private Outcomes outcomes = new Outcomes();
+
+    public PushOutcomeBuffer(final PushInfoRepository pushInfoRepository,
+            final RobertPushServerProperties robertPushServerProperties,
+            final MeterRegistry meterRegistry) {
+        this.pushInfoRepository = pushInfoRepository;
+        this.maxSize = robertPushServerProperties.getOutcomeBuffer().getMaxSize();
+        this.capacity = robertPushServerProperties.getOutcomeBuffer().getCapacity();
+        final var maxAge = robertPushServerProperties.getOutcomeBuffer().getMaxAge().toMillis();
+        flushExecutor.scheduleWithFixedDelay(this::flush, maxAge, maxAge, MILLISECONDS);
+        Gauge.builder("push.pipeline.queue.depth", this, PushOutcomeBuffer::size)
+                .description("notifications waiting in a stage of the streaming pipeline")
+                .tag("stage", "write")
+                .register(meterRegistry);
+        this.writeCounter = Counter.builder("push.pipeline.processed")
+                .description("notifications processed by a stage of the streaming pipeline")
+                .tag("stage", "write")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("push.outcome.dropped")
+                .description("notification outcomes which could not be written to the database")
+                .register(meterRegistry);
+    }
+
+    public void addSuccess(final long id, final String acceptingServer) {
+        add(buffer -> {
+            buffer.successfulIds.add(id);
+            buffer.acceptingServers.add(acceptingServer);
+        });
+    }
+
+    public void addFailure(final long id, final String failureDescription) {
+        add(buffer -> {
+            buffer.failedIds.add(id);
+            buffer.failureDescriptions.add(failureDescription);
+        });
+    }
+
+    /**
+     * Records a failure and disables the push.
+     */
+    public void addInactive(final long id, final String failureDescription) {
+        add(buffer -> {
+            buffer.failedIds.add(id);
+            buffer.failureDescriptions.add(failureDescription);
+            buffer.disabledIds.add(id);
+        });
+    }
+
+    /**
+     * Records a notification which has not been sent and reschedules it at the
+     * given date, leaving it active.
+     */
+    public void addRetry(final long id, final Instant retryDate) {
+        add(buffer -> {
+            buffer.retriedIds.add(id);
+            buffer.retryDates.add(retryDate);
+        });
+    }
+
+    private void add(final Consumer<Outcomes> outcomeAppender) {
+        final int size;
+        synchronized (this) {
+            if (outcomes.size() >= capacity) {
+                droppedCounter.increment();
+                return;
+            }
+            outcomeAppender.accept(outcomes);
+            size = outcomes.size();
+        }
+        if (closed) {
+            flush();
+        } else if (size >= maxSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(this::flush);
+            } catch (final RejectedExecutionException e) {
+                // closed meanwhile
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes buffered outcomes to the database. Concurrent calls are serialized so
+     * that outcomes are written when this method returns.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Outcomes toBeWritten;
+            synchronized (this) {
+                toBeWritten = outcomes;
+                outcomes = new Outcomes();
+                flushRequested.set(false);
+            }
+            final var size = toBeWritten.size();
+            if (write(toBeWritten)) {
+                writeCounter.increment(size);
+            } else {
+                log.error("Dropping {} push outcomes not written", toBeWritten.size());
+                writeCounter.increment(size - toBeWritten.size());
+                droppedCounter.increment(toBeWritten.size());
+            }
+        }
+    }
+
+    /**
+     * Writes the outcomes, retrying with an exponential backoff when it fails.
+     *
+     * @return whether all outcomes have been written, the outcomes left are the
+     *         ones not written otherwise
+     */
+    private boolean write(final Outcomes toBeWritten) {
+        var retryDelay = FIRST_RETRY_DELAY_MILLIS;
+        for (var attempt = 1;; attempt++) {
+            try {
+                toBeWritten.writeTo(pushInfoRepository);
+                return true;
+            } catch (final Exception e) {
+                log.warn("Unable to write {} push outcomes, attempt {}", toBeWritten.size(), attempt, e);
+            }
+            if (attempt == MAX_WRITE_ATTEMPTS) {
+                return false;
+            }
+            try {
+                MILLISECONDS.sleep(retryDelay);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            retryDelay *= 2;
+        }
+    }
+
+    private synchronized int size() {
+        return outcomes.size();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(1, SECONDS);
+        flush();
+    }
+
+    private static class Outcomes {
+
+        private final List<Long> successfulIds = new ArrayList<>();
+
+        private final List<String> acceptingServers = new ArrayList<>();
+
+        private final List<Long> failedIds = new ArrayList<>();
+
+        private final List<String> failureDescriptions = new ArrayList<>();
+
+        private final List<Long> disabledIds = new ArrayList<>();
+
+        private final List<Long> retriedIds = new ArrayList<>();
+
+        private final List<Instant> retryDates = new ArrayList<>();
+
+        private int size() {
+            return successfulIds.size() + failedIds.size() + retriedIds.size();
+        }
+
+        /**
+         * Writes the outcomes, each kind of outcome being cleared once written so that
+         * a retry does not write it twice.
+         */
+        private void writeTo(final PushInfoRepository pushInfoRepository) {
+            if (!successfulIds.isEmpty()) {
+                pushInfoRepository.updateSuccessfulPushSent(successfulIds, acceptingServers);
+                successfulIds.clear();
+                acceptingServers.clear();
+            }
+            if (!failedIds.isEmpty()) {
+                pushInfoRepository.updateFailure(failedIds, failureDescriptions);
+                failedIds.clear();
+                failureDescriptions.clear();
+            }
+            if (!disabledIds.isEmpty()) {
+                pushInfoRepository.disable(disabledIds);
+                disabledIds.clear();
+            }
+            if (!retriedIds.isEmpty()) {
+                pushInfoRepository.updateNextPlannedPushDates(retriedIds, retryDates);
+                retriedIds.clear();
+                retryDates.clear();
+            }
+        }
+    }
+}
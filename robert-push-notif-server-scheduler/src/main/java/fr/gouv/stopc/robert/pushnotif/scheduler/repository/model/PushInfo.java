@@ -3,13 +3,32 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.repository.model;
 import lombok.Builder;
 import lombok.Value;
 
+import java.time.Instant;
+
 @Value
 @Builder
 public class PushInfo {
 
     Long id;
 
-    String token;
+    /**
+     * The bytes of the APNs device token.
+     */
+    byte[] token;
 
     String timezone;
+
+    Instant nextPlannedPush;
+
+    /**
+     * The next push date a claimed notification has been rescheduled to, null when
+     * the notification has not been claimed.
+     */
+    Instant claimedUntil;
+
+    /**
+     * The APNs server which accepted the last notification, formatted as
+     * {@code host:port}.
+     */
+    String lastAcceptingServer;
 }
@@ -0,0 +1,57 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MinuteLoadsTest {
+
+    private final MinuteLoads loads = new MinuteLoads(10);
+
+    @Test
+    void least_load_of_a_range_ignores_the_minutes_outside_of_it() {
+        loads.setAll(minute -> new int[] { 0, 3, 2, 5, 2, 4, 1, 3, 2, 0 }[minute]);
+
+        assertThat(loads.minLoad(1, 6)).isEqualTo(2);
+        assertThat(loads.countMinLoad(2, 1, 6)).isEqualTo(2);
+        assertThat(loads.nthMinLoadMinute(2, 0, 1, 6)).isEqualTo(2);
+        assertThat(loads.nthMinLoadMinute(2, 1, 1, 6)).isEqualTo(4);
+    }
+
+    @Test
+    void incremented_minutes_are_no_longer_the_least_loaded() {
+        loads.increment(0);
+        loads.increment(9);
+
+        assertThat(loads.minLoad(0, 10)).isZero();
+        assertThat(loads.countMinLoad(0, 0, 10)).isEqualTo(8);
+        assertThat(loads.nthMinLoadMinute(0, 0, 0, 10)).isEqualTo(1);
+        assertThat(loads.nthMinLoadMinute(0, 7, 0, 10)).isEqualTo(8);
+        assertThat(loads.get(9)).isOne();
+    }
+
+    @Test
+    void least_loaded_minutes_match_a_scan_of_the_range() {
+        final var random = new Random(42);
+        final var minuteLoads = new MinuteLoads(1000);
+        final var expected = new int[1000];
+        IntStream.range(0, 5000).forEach(i -> {
+            final var minute = random.nextInt(1000);
+            minuteLoads.increment(minute);
+            expected[minute]++;
+
+            final var from = random.nextInt(1000);
+            final var to = from + 1 + random.nextInt(1000 - from);
+            final var leastLoad = IntStream.range(from, to).map(m -> expected[m]).min().orElseThrow();
+            final var leastLoadedMinutes = IntStream.range(from, to).filter(m -> expected[m] == leastLoad)
+                    .toArray();
+            assertThat(minuteLoads.minLoad(from, to)).isEqualTo(leastLoad);
+            assertThat(minuteLoads.countMinLoad(leastLoad, from, to)).isEqualTo(leastLoadedMinutes.length);
+            final var n = random.nextInt(leastLoadedMinutes.length);
+            assertThat(minuteLoads.nthMinLoadMinute(leastLoad, n, from, to)).isEqualTo(leastLoadedMinutes[n]);
+        });
+    }
+}
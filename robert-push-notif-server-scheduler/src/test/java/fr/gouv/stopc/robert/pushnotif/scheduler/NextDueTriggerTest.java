@@ -0,0 +1,47 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NextDueTriggerTest {
+
+    private final NextDueTrigger trigger = new NextDueTrigger(
+            new UnavailablePushInfoRepository(),
+            RobertPushServerProperties.Scheduler.builder()
+                    .delayInMs(5000)
+                    .maxIdleInterval(Duration.ofMinutes(1))
+                    .build()
+    );
+
+    @Test
+    void next_run_is_delayed_when_the_next_push_date_can_not_be_read() {
+        final var lastCompletion = Date.from(Instant.now());
+
+        final var nextRun = trigger
+                .nextExecutionTime(new SimpleTriggerContext(lastCompletion, lastCompletion, lastCompletion));
+
+        assertThat(nextRun).isEqualTo(Date.from(lastCompletion.toInstant().plusMillis(5000)));
+    }
+
+    private static class UnavailablePushInfoRepository extends PushInfoRepository {
+
+        UnavailablePushInfoRepository() {
+            super(null);
+        }
+
+        @Override
+        public Optional<Instant> findNextPlannedPush() {
+            throw new DataAccessResourceFailureException("database unavailable");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.PushMinuteBuckets.Bucket;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PushMinuteBucketsTest {
+
+    private static final List<ZoneId> ZONES = List.of(ZoneId.of("UTC"), ZoneId.of("Europe/Paris"));
+
+    @Test
+    void a_minute_is_due_in_the_bucket_of_its_local_time_in_each_timezone() {
+        final var minute = epochMinute("2026-10-18T08:30:00Z");
+
+        assertThat(PushMinuteBuckets.between(minute - 1, minute, ZONES))
+                .containsExactly(
+                        new Bucket("UTC", 8 * 60 + 30, minute),
+                        new Bucket("Europe/Paris", 10 * 60 + 30, minute)
+                );
+    }
+
+    @Test
+    void missed_minutes_are_due_in_their_own_buckets() {
+        final var minute = epochMinute("2026-10-18T08:30:00Z");
+
+        assertThat(PushMinuteBuckets.between(minute - 3, minute, List.of(ZoneId.of("UTC"))))
+                .containsExactly(
+                        new Bucket("UTC", 8 * 60 + 28, minute - 2),
+                        new Bucket("UTC", 8 * 60 + 29, minute - 1),
+                        new Bucket("UTC", 8 * 60 + 30, minute)
+                );
+    }
+
+    @Test
+    void local_minutes_skipped_when_clocks_are_set_forward_are_due_at_the_transition() {
+        // 2026-03-29 at 2:00 in Paris, clocks are set forward to 3:00
+        final var transition = epochMinute("2026-03-29T01:00:00Z");
+
+        assertThat(PushMinuteBuckets.between(transition - 1, transition, List.of(ZoneId.of("Europe/Paris"))))
+                .hasSize(61)
+                .allSatisfy(bucket -> assertThat(bucket.getDueMinute()).isEqualTo(transition))
+                .extracting(Bucket::getMinuteOfDay)
+                .startsWith(2 * 60, 2 * 60 + 1)
+                .endsWith(2 * 60 + 59, 3 * 60);
+    }
+
+    @Test
+    void local_minutes_repeated_when_clocks_are_set_back_are_due_once() {
+        // 2026-10-25 at 3:00 in Paris, clocks are set back to 2:00
+        final var firstOccurrence = epochMinute("2026-10-25T00:00:00Z");
+        final var transition = epochMinute("2026-10-25T01:00:00Z");
+
+        final var buckets = PushMinuteBuckets
+                .between(firstOccurrence - 1, transition + 60, List.of(ZoneId.of("Europe/Paris")));
+
+        assertThat(buckets)
+                .hasSize(61)
+                .extracting(Bucket::getMinuteOfDay)
+                .doesNotHaveDuplicates()
+                .startsWith(2 * 60)
+                .endsWith(2 * 60 + 59, 3 * 60);
+        assertThat(buckets.get(0).getDueMinute()).isEqualTo(firstOccurrence);
+    }
+
+    private static long epochMinute(final String instant) {
+        return Instant.parse(instant).getEpochSecond() / 60;
+    }
+}
@@ -0,0 +1,91 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.database.ApnsTokenCodec;
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForTokenAndNextPlannedPush;
+import static java.time.Instant.now;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+@TestPropertySource(properties = "robert.push.server.timing-wheel.horizon=2d")
+class PushPrefetcherTest {
+
+    @Autowired
+    PushInfoRepository pushInfoRepository;
+
+    @Autowired
+    SchedulerLeaderElection schedulerLeaderElection;
+
+    @Autowired
+    RobertPushServerProperties robertPushServerProperties;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private PushPrefetcher pushPrefetcher;
+
+    @BeforeEach
+    void createPrefetcher() {
+        pushPrefetcher = new PushPrefetcher(
+                pushInfoRepository, schedulerLeaderElection, robertPushServerProperties, meterRegistry
+        );
+    }
+
+    @Test
+    void notifications_too_far_ahead_for_the_wheel_do_not_hide_the_ones_planned_before_them() {
+        // Given
+        givenPushInfoForTokenAndNextPlannedPush(
+                "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", now().plus(2, HOURS)
+        );
+        givenPushInfoForTokenAndNextPlannedPush(
+                "5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19", now().plus(30, HOURS)
+        );
+        pushPrefetcher.refill();
+        assertThat(prefetchedNotifications()).isEqualTo(1.0);
+
+        // When
+        givenPushInfoForTokenAndNextPlannedPush(
+                "45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589", now().plus(3, HOURS)
+        );
+        pushPrefetcher.refill();
+
+        // Then
+        assertThat(prefetchedNotifications()).isEqualTo(2.0);
+    }
+
+    @Test
+    void notifications_rescheduled_behind_the_last_loaded_one_are_caught_up() {
+        // Given
+        givenPushInfoForTokenAndNextPlannedPush(
+                "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", now().plus(2, HOURS)
+        );
+        pushPrefetcher.refill();
+        assertThat(pushPrefetcher.pollDue()).isEmpty();
+
+        // When
+        givenPushInfoForTokenAndNextPlannedPush(
+                "45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589", now().minus(1, MINUTES)
+        );
+        pushPrefetcher.refill();
+
+        // Then
+        assertThat(pushPrefetcher.pollDue())
+                .extracting(pushInfo -> ApnsTokenCodec.toHexString(pushInfo.getToken()))
+                .containsExactly("45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589");
+        assertThat(prefetchedNotifications()).isEqualTo(1.0);
+    }
+
+    private double prefetchedNotifications() {
+        return meterRegistry.get("push.notifier.prefetched").gauge().value();
+    }
+}
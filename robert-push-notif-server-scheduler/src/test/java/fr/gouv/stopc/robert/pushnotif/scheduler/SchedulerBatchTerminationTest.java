@@ -0,0 +1,115 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.givenApnsServerRespondsAfter;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.time.Instant.now;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.max-notifications-per-second=1",
+        "robert.push.server.rate-limiting.burst=1",
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.batch-termination-grace-time=3s"
+})
+class SchedulerBatchTerminationTest {
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void batch_terminates_as_soon_as_the_last_notification_is_handled() {
+
+        // Given
+        rangeClosed(1, 2).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+        final var pendingAtDeadlineCount = pendingAtDeadline().count();
+
+        // When
+        final var before = now();
+        scheduler.sendNotifications();
+        final var after = now();
+
+        // Then
+        assertThat(Duration.between(before, after))
+                .isLessThan(Duration.ofSeconds(3));
+        assertThatAllPushInfo()
+                .extracting(PushInfo::getSuccessfulPushSent)
+                .as("outcomes are written when the batch terminates")
+                .hasSize(2)
+                .doesNotContain(0);
+        assertThat(pendingAtDeadline().count())
+                .isEqualTo(pendingAtDeadlineCount);
+    }
+
+    @Test
+    void batch_waits_for_the_notifications_queued_by_the_rate_limit() {
+
+        // Given
+        rangeClosed(1, 6).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+        final var pendingAtDeadlineCount = pendingAtDeadline().count();
+
+        // When
+        final var before = now();
+        scheduler.sendNotifications();
+        final var after = now();
+
+        // Then
+        assertThat(Duration.between(before, after))
+                .isBetween(Duration.ofSeconds(5), Duration.ofSeconds(7));
+        assertThatAllPushInfo()
+                .extracting(PushInfo::getSuccessfulPushSent)
+                .hasSize(6)
+                .doesNotContain(0);
+        assertThat(pendingAtDeadline().count())
+                .isEqualTo(pendingAtDeadlineCount);
+    }
+
+    @Test
+    void batch_terminates_at_the_deadline_and_reports_pending_notifications() {
+
+        // Given
+        givenApnsServerRespondsAfter(PRIMARY, Duration.ofSeconds(5));
+        rangeClosed(1, 5).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+        final var pendingAtDeadlineCount = pendingAtDeadline().count();
+        final var pendingAtDeadlineTotal = pendingAtDeadline().totalAmount();
+
+        // When
+        final var before = now();
+        scheduler.sendNotifications();
+        final var after = now();
+
+        // Then
+        assertThat(Duration.between(before, after))
+                .as("the last notification is sent after 4s, then the grace time elapses")
+                .isBetween(Duration.ofSeconds(7), Duration.ofSeconds(9));
+        assertThat(pendingAtDeadline().count())
+                .isEqualTo(pendingAtDeadlineCount + 1);
+        assertThat(pendingAtDeadline().totalAmount() - pendingAtDeadlineTotal)
+                .isBetween(1.0, 4.0);
+
+        await().atMost(20, SECONDS)
+                .untilAsserted(() -> assertThatNotifsAcceptedBy(PRIMARY).hasSize(5));
+    }
+
+    private DistributionSummary pendingAtDeadline() {
+        return meterRegistry.get("push.notifier.pending.at.deadline").summary();
+    }
+}
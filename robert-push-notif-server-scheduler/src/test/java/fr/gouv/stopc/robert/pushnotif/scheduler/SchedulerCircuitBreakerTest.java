@@ -0,0 +1,102 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Instant;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.BAD_DEVICE_TOKEN;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.INTERNAL_SERVER_ERROR;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.annotation.DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD;
+
+@IntegrationTest
+@DirtiesContext(classMode = AFTER_EACH_TEST_METHOD)
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.circuit-breaker.enabled=true",
+        "robert.push.server.circuit-breaker.sliding-window-size=1",
+        "robert.push.server.circuit-breaker.minimum-number-of-calls=1",
+        "robert.push.server.circuit-breaker.wait-duration-in-open-state=1h"
+})
+class SchedulerCircuitBreakerTest {
+
+    private static final String FAILING_TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    private static final String OTHER_TOKEN = "5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19";
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void notifications_are_sent_to_the_next_server_while_the_breaker_of_the_first_one_is_open() {
+
+        // Given
+        givenApnsServerRejectsTokenIdWith(PRIMARY, FAILING_TOKEN, INTERNAL_SERVER_ERROR);
+        givenPushInfoForToken(FAILING_TOKEN);
+        scheduler.sendNotifications();
+        assertThatPushInfo(FAILING_TOKEN)
+                .hasFieldOrPropertyWithValue("failedPushSent", 1)
+                .hasFieldOrPropertyWithValue("lastErrorCode", "InternalServerError");
+        assertThat(breakerState("2198", "OPEN")).isEqualTo(1.0);
+        assertThat(breakerState("2197", "CLOSED")).isEqualTo(1.0);
+
+        // When
+        givenPushInfoForToken(OTHER_TOKEN);
+        scheduler.sendNotifications();
+
+        // Then
+        assertThatNotifsRejectedBy(PRIMARY).hasSize(1);
+        assertThatNotifsAcceptedBy(PRIMARY).hasSize(0);
+        assertThatNotifsAcceptedBy(SECONDARY).hasSize(1);
+        assertThatPushInfo(OTHER_TOKEN)
+                .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2197");
+    }
+
+    @Test
+    void notifications_rejected_by_the_next_server_while_the_breaker_of_the_first_one_is_open_are_retried() {
+
+        // Given
+        givenApnsServerRejectsTokenIdWith(PRIMARY, FAILING_TOKEN, INTERNAL_SERVER_ERROR);
+        givenPushInfoForToken(FAILING_TOKEN);
+        scheduler.sendNotifications();
+        assertThat(breakerState("2198", "OPEN")).isEqualTo(1.0);
+
+        // When
+        givenApnsServerRejectsTokenIdWith(SECONDARY, OTHER_TOKEN, BAD_DEVICE_TOKEN);
+        givenPushInfoForToken(OTHER_TOKEN);
+        scheduler.sendNotifications();
+
+        // Then
+        assertThatNotifsRejectedBy(SECONDARY).hasSize(1);
+        assertThatPushInfo(OTHER_TOKEN)
+                .hasFieldOrPropertyWithValue("active", true)
+                .hasFieldOrPropertyWithValue("failedPushSent", 0)
+                .hasFieldOrPropertyWithValue("successfulPushSent", 0)
+                .satisfies(
+                        pushInfo -> assertThat(pushInfo.getNextPlannedPush())
+                                .isBetween(Instant.now().plus(59, MINUTES), Instant.now().plus(1, HOURS))
+                );
+    }
+
+    private double breakerState(final String port, final String state) {
+        return meterRegistry.get("pushy.notifications.circuitbreaker.state")
+                .tags("port", port, "state", state)
+                .gauge()
+                .value();
+    }
+}
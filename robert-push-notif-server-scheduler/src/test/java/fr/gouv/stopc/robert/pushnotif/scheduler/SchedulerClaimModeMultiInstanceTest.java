@@ -0,0 +1,87 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.mode=CLAIM",
+        "robert.push.server.scheduler.claim-chunk-size=10"
+})
+class SchedulerClaimModeMultiInstanceTest {
+
+    private static final int PUSH_NOTIF_COUNT = 2000;
+
+    private static final int ADDITIONAL_INSTANCES_COUNT = 2;
+
+    private List<ConfigurableApplicationContext> additionalInstances = List.of();
+
+    @AfterEach
+    void stopAdditionalInstances() {
+        additionalInstances.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void should_send_each_due_notification_once_when_several_instances_claim_notifications() {
+
+        // Given
+        additionalInstances = IntStream.range(0, ADDITIONAL_INSTANCES_COUNT)
+                .mapToObj(
+                        i -> new SpringApplicationBuilder(RobertPushNotifSchedulerApplication.class)
+                                .profiles("test")
+                                .run(
+                                        "--server.port=0",
+                                        "--management.server.port=0",
+                                        "--spring.flyway.enabled=false",
+                                        "--robert.push.server.scheduler.mode=CLAIM",
+                                        "--robert.push.server.scheduler.claim-chunk-size=10",
+                                        "--robert.push.server.apns.warm-up.enabled=false"
+                                )
+                )
+                .collect(Collectors.toList());
+        rangeClosed(1, PUSH_NOTIF_COUNT).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When -- triggering of the scheduled jobs of all instances
+
+        // Then
+        await().during(2, SECONDS).atMost(60, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY)
+                    .hasSize(PUSH_NOTIF_COUNT)
+                    .extracting(ApnsPushNotification::getToken)
+                    .doesNotHaveDuplicates();
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(0);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(0);
+            assertThatNotifsRejectedBy(SECONDARY).hasSize(0);
+
+            assertThatAllPushInfo()
+                    .hasSize(PUSH_NOTIF_COUNT)
+                    .extracting(
+                            PushInfo::isActive,
+                            PushInfo::isDeleted,
+                            PushInfo::getSuccessfulPushSent,
+                            PushInfo::getFailedPushSent
+                    )
+                    .containsOnly(tuple(true, false, 1, 0));
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.time.ZoneOffset.UTC;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.mode=CLAIM",
+        "robert.push.server.scheduler.claim-chunk-size=3"
+})
+class SchedulerClaimModeTest {
+
+    private static final ZoneId PARIS = ZoneId.of("Europe/Paris");
+
+    @Test
+    void should_send_each_due_notification_once_and_reschedule_it_tomorrow_between_push_hours() {
+
+        // Given
+        rangeClosed(1, 10).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(10);
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(0);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(0);
+            assertThatNotifsRejectedBy(SECONDARY).hasSize(0);
+
+            assertThatAllPushInfo()
+                    .hasSize(10)
+                    .extracting(
+                            PushInfo::isActive,
+                            PushInfo::isDeleted,
+                            PushInfo::getSuccessfulPushSent,
+                            PushInfo::getFailedPushSent
+                    )
+                    .containsOnly(tuple(true, false, 1, 0));
+
+            assertThatAllPushInfo()
+                    .extracting(PushInfo::getNextPlannedPush)
+                    .allSatisfy(nextPlannedPush -> {
+                        final var localNextPlannedPush = nextPlannedPush.atZone(PARIS);
+                        assertThat(localNextPlannedPush.toLocalDate())
+                                .isEqualTo(LocalDate.now(PARIS).plusDays(1));
+                        assertThat(localNextPlannedPush.getHour())
+                                .as("random hour should be between 8 (included) and 10 (excluded)")
+                                .isBetween(8, 9);
+                    });
+        });
+    }
+
+    @Test
+    void should_reschedule_notifications_with_a_timezone_unknown_to_the_database_in_utc() {
+
+        // Given
+        rangeClosed(1, 5).forEach(i -> givenPushInfoForTokenAndTimezone(randomUUID().toString(), "Mars/Olympus"));
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(5);
+
+            assertThatAllPushInfo()
+                    .hasSize(5)
+                    .extracting(PushInfo::getNextPlannedPush)
+                    .allSatisfy(nextPlannedPush -> {
+                        final var localNextPlannedPush = nextPlannedPush.atZone(UTC);
+                        assertThat(localNextPlannedPush.toLocalDate())
+                                .isEqualTo(LocalDate.now(UTC).plusDays(1));
+                        assertThat(localNextPlannedPush.getHour())
+                                .as("random hour should be between 8 (included) and 10 (excluded)")
+                                .isBetween(8, 9);
+                    });
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.max-notifications-per-second=1",
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.hedging.enabled=true",
+        "robert.push.server.hedging.delay=200ms",
+        "robert.push.server.hedging.max-pending-hedges=10"
+})
+class SchedulerHedgingRateLimitedTest {
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void should_not_hedge_notifications_waiting_for_the_rate_limit_of_a_fast_server() {
+
+        // Given
+        final var hedgedBefore = meterRegistry.get("pushy.notifications.failover.hedged").counter().count();
+        givenPushInfoForToken("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad");
+        givenPushInfoForToken("5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19");
+        givenPushInfoForToken("45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589");
+
+        // When
+        scheduler.sendNotifications();
+
+        // Then
+        assertThatNotifsAcceptedBy(PRIMARY).hasSize(3);
+        assertThatNotifsAcceptedBy(SECONDARY).isEmpty();
+        assertThatAllPushInfo()
+                .extracting(PushInfo::getLastAcceptingServer)
+                .containsOnly("localhost:2198");
+        assertThat(meterRegistry.get("pushy.notifications.failover.hedged").counter().count() - hedgedBefore)
+                .isEqualTo(0.0);
+    }
+}
@@ -0,0 +1,110 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.hedging.enabled=true",
+        "robert.push.server.hedging.delay=200ms",
+        "robert.push.server.hedging.max-pending-hedges=1"
+})
+class SchedulerHedgingTest {
+
+    private static final String TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    private static final String OTHER_TOKEN = "5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19";
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void should_take_the_response_of_the_second_server_when_the_first_one_is_slow() {
+
+        // Given
+        final var hedgedBefore = counter("pushy.notifications.failover.hedged");
+        givenApnsServerRespondsAfter(PRIMARY, Duration.ofSeconds(3));
+        givenPushInfoForToken(TOKEN);
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(1);
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(0);
+            assertThatPushInfo(TOKEN)
+                    .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2197");
+            assertThat(counter("pushy.notifications.failover.hedged") - hedgedBefore).isEqualTo(1.0);
+        });
+
+        // the late response of the first server is ignored
+        await().atMost(40, SECONDS).untilAsserted(() -> assertThatNotifsAcceptedBy(PRIMARY).hasSize(1));
+        assertThatPushInfo(TOKEN)
+                .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2197");
+    }
+
+    @Test
+    void should_not_hedge_notifications_whose_accepting_server_is_known() {
+
+        // Given
+        final var hedgedBefore = counter("pushy.notifications.failover.hedged");
+        givenApnsServerRespondsAfter(PRIMARY, Duration.ofSeconds(1));
+        givenPushInfoForTokenAndLastAcceptingServer(TOKEN, "localhost:2198");
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(1);
+            assertThatPushInfo(TOKEN)
+                    .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2198");
+        });
+        assertThatNotifsAcceptedBy(SECONDARY).hasSize(0);
+        assertThat(counter("pushy.notifications.failover.hedged") - hedgedBefore).isEqualTo(0.0);
+    }
+
+    @Test
+    void should_cap_the_number_of_pending_hedged_notifications() {
+
+        // Given
+        final var hedgedBefore = counter("pushy.notifications.failover.hedged");
+        final var cappedBefore = counter("pushy.notifications.failover.hedged.capped");
+        givenApnsServerRespondsAfter(PRIMARY, Duration.ofSeconds(2));
+        givenApnsServerRespondsAfter(SECONDARY, Duration.ofSeconds(1));
+        givenPushInfoForToken(TOKEN);
+        givenPushInfoForToken(OTHER_TOKEN);
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(2);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(1);
+            assertThatAllPushInfo()
+                    .extracting(PushInfo::getSuccessfulPushSent)
+                    .containsExactly(1, 1);
+        });
+        assertThat(counter("pushy.notifications.failover.hedged") - hedgedBefore).isEqualTo(1.0);
+        assertThat(counter("pushy.notifications.failover.hedged.capped") - cappedBefore).isEqualTo(1.0);
+    }
+
+    private double counter(final String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+}
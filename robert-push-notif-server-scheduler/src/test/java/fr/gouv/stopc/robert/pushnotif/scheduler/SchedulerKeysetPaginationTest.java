@@ -0,0 +1,52 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.MetricsManager.assertThatTimerCountIncrement;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = "robert.push.server.scheduler.read-chunk-size=3")
+class SchedulerKeysetPaginationTest {
+
+    @Test
+    void should_send_each_due_notification_once_when_read_by_chunks() {
+
+        // Given
+        rangeClosed(1, 10).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(10);
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(0);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(0);
+            assertThatNotifsRejectedBy(SECONDARY).hasSize(0);
+
+            assertThatAllPushInfo()
+                    .hasSize(10)
+                    .extracting(
+                            PushInfo::isActive,
+                            PushInfo::isDeleted,
+                            PushInfo::getSuccessfulPushSent,
+                            PushInfo::getFailedPushSent
+                    )
+                    .containsOnly(tuple(true, false, 1, 0));
+
+            // 3 + 3 + 3 + 1 due notifications
+            assertThatTimerCountIncrement("push.notifier.fetch.duration").isGreaterThanOrEqualTo(4);
+        });
+    }
+}
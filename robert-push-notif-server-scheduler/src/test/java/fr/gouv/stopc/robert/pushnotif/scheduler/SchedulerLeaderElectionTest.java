@@ -0,0 +1,116 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.stream.Stream;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.leader-election.enabled=true",
+        "robert.push.server.leader-election.lock-id=4242"
+})
+class SchedulerLeaderElectionTest {
+
+    private static final int PUSH_NOTIF_COUNT = 100;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private ConfigurableApplicationContext otherInstance;
+
+    @BeforeEach
+    void startOtherInstance() {
+        otherInstance = new SpringApplicationBuilder(RobertPushNotifSchedulerApplication.class)
+                .profiles("test")
+                .run(
+                        "--server.port=0",
+                        "--management.server.port=0",
+                        "--spring.flyway.enabled=false",
+                        "--robert.push.server.leader-election.enabled=true",
+                        "--robert.push.server.leader-election.lock-id=4242"
+                );
+    }
+
+    @AfterEach
+    void stopOtherInstance() {
+        otherInstance.close();
+    }
+
+    @Test
+    void only_the_leader_sends_notifications() {
+
+        // Given
+        rangeClosed(1, PUSH_NOTIF_COUNT).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When -- triggering of the scheduled job of both instances
+
+        // Then
+        await().during(2, SECONDS).atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY)
+                    .hasSize(PUSH_NOTIF_COUNT)
+                    .extracting(ApnsPushNotification::getToken)
+                    .doesNotHaveDuplicates();
+            assertThatExactlyOneLeaderAndOneStandby();
+        });
+    }
+
+    @Test
+    void an_instance_takes_over_when_the_leader_loses_its_lock() {
+
+        // Given
+        await().atMost(10, SECONDS).untilAsserted(this::assertThatExactlyOneLeaderAndOneStandby);
+
+        // When
+        jdbcTemplate.queryForList(
+                "select pg_terminate_backend(pid) from pg_locks where locktype = 'advisory' and objid = 4242",
+                Boolean.class
+        );
+        rangeClosed(1, PUSH_NOTIF_COUNT).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // Then
+        await().during(2, SECONDS).atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY)
+                    .hasSize(PUSH_NOTIF_COUNT)
+                    .extracting(ApnsPushNotification::getToken)
+                    .doesNotHaveDuplicates();
+            assertThatExactlyOneLeaderAndOneStandby();
+        });
+    }
+
+    private void assertThatExactlyOneLeaderAndOneStandby() {
+        final var registries = Stream.of(meterRegistry, otherInstance.getBean(MeterRegistry.class));
+        assertThat(registries)
+                .extracting(
+                        registry -> registry.get("push.scheduler.leader").gauge().value(),
+                        registry -> registry.get("push.scheduler.standby").gauge().value()
+                )
+                .as("leader and standby gauges of both instances")
+                .containsExactlyInAnyOrder(
+                        tuple(1.0, 0.0),
+                        tuple(0.0, 1.0)
+                );
+    }
+}
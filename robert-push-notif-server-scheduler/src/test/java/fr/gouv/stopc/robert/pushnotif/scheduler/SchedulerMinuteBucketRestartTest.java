@@ -0,0 +1,55 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.repository.PushInfoRepository;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+class SchedulerMinuteBucketRestartTest {
+
+    @Autowired
+    PushInfoRepository pushInfoRepository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void minute_buckets_missed_during_a_restart_are_caught_up() {
+        // Given
+        final var currentMinute = Instant.now().getEpochSecond() / 60;
+        jdbcTemplate.update("update push_minute_bucket_cursor set last_polled_minute = ?", currentMinute - 5);
+
+        // When
+        final var buckets = new PushMinuteBuckets(pushInfoRepository).pollDue();
+
+        // Then
+        assertThat(buckets.stream().map(PushMinuteBuckets.Bucket::getDueMinute).collect(toSet()))
+                .contains(currentMinute - 4, currentMinute - 1, currentMinute)
+                .doesNotContain(currentMinute - 5);
+    }
+
+    @Test
+    void minute_buckets_are_polled_by_a_single_instance() {
+        // Given
+        final var leader = new PushMinuteBuckets(pushInfoRepository);
+        final var nextLeader = new PushMinuteBuckets(pushInfoRepository);
+
+        // When
+        final var leaderBuckets = leader.pollDue();
+        final var nextLeaderBuckets = nextLeader.pollDue();
+
+        // Then
+        assertThat(leaderBuckets).isNotEmpty();
+        assertThat(nextLeaderBuckets.stream().map(PushMinuteBuckets.Bucket::getDueMinute))
+                .doesNotContainAnyElementsOf(
+                        leaderBuckets.stream().map(PushMinuteBuckets.Bucket::getDueMinute).collect(toSet())
+                );
+    }
+}
@@ -0,0 +1,62 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.time.Instant.now;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = "robert.push.server.scheduler.mode=MINUTE_BUCKET")
+class SchedulerMinuteBucketTest {
+
+    private static final String DUE_TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    private static final String LATER_TOKEN = "45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589";
+
+    private static final String NEW_TOKEN = "5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19";
+
+    @Test
+    void notifications_are_sent_at_their_push_minute_without_being_rescheduled() {
+        // Given
+        final var nextMinute = LocalTime.ofInstant(now().plus(1, MINUTES), ZoneId.of("Europe/Paris"));
+        final var nextMinuteOfDay = nextMinute.getHour() * 60 + nextMinute.getMinute();
+        givenPushInfoForTokenAndPushMinute(DUE_TOKEN, nextMinuteOfDay);
+        givenPushInfoForTokenAndPushMinute(LATER_TOKEN, (nextMinuteOfDay + 10) % 1440);
+        givenPushInfoForToken(NEW_TOKEN);
+
+        // When - the run of the next minute is triggered
+
+        // Then
+        await().atMost(70, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThatPushInfo(DUE_TOKEN)
+                        .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+        );
+        assertThatNotifsAcceptedBy(PRIMARY)
+                .extracting(ApnsPushNotification::getToken)
+                .contains(DUE_TOKEN)
+                .doesNotContain(LATER_TOKEN);
+        assertThatPushInfo(DUE_TOKEN)
+                .hasFieldOrPropertyWithValue("pushMinute", nextMinuteOfDay)
+                .extracting(PushInfo::getNextPlannedPush)
+                .satisfies(nextPlannedPush -> assertThat(nextPlannedPush).isBefore(now().truncatedTo(DAYS)));
+        assertThatPushInfo(NEW_TOKEN)
+                .extracting(PushInfo::getPushMinute)
+                .satisfies(pushMinute -> assertThat(pushMinute).isBetween(8 * 60, 10 * 60 - 1));
+    }
+}
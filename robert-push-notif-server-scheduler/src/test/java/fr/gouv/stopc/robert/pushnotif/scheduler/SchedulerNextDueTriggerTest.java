@@ -0,0 +1,50 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForTokenAndNextPlannedPush;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.scheduler.trigger=NEXT_DUE",
+        "robert.push.server.scheduler.max-idle-interval=2s"
+})
+class SchedulerNextDueTriggerTest {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void notification_is_sent_as_soon_as_it_is_due() {
+        // Given
+        final var dueDate = Instant.now().plus(5, SECONDS);
+        givenPushInfoForTokenAndNextPlannedPush(
+                "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", dueDate
+        );
+
+        // When - the run is triggered at the due date
+
+        // Then
+        await().atMost(15, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThatNotifsAcceptedBy(PRIMARY).hasSize(1));
+        assertThat(Instant.now()).isAfterOrEqualTo(dueDate);
+        assertThat(meterRegistry.get("push.notifier.lag").timeGauge().value(MILLISECONDS))
+                .isBetween(0.0, 500.0);
+    }
+}
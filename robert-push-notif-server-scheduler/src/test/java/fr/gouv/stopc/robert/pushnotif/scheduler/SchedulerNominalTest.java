@@ -2,9 +2,13 @@ package fr.gouv.stopc.robert.pushnotif.scheduler;
 
 import com.eatthepath.pushy.apns.DeliveryPriority;
 import com.eatthepath.pushy.apns.PushType;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.ApnsWarmUp;
 import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
@@ -23,6 +27,7 @@ import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
 import static java.time.Instant.now;
 import static java.time.ZoneOffset.UTC;
 import static java.time.temporal.ChronoUnit.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.HamcrestCondition.matching;
 import static org.awaitility.Awaitility.await;
 import static org.exparity.hamcrest.date.InstantMatchers.after;
@@ -34,6 +39,12 @@ import static org.hamcrest.Matchers.hasProperty;
 @DirtiesContext
 class SchedulerNominalTest {
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ApnsWarmUp apnsWarmUp;
+
     @Test
     void should_correctly_update_push_status_when_send_notification_to_first_apn_server_with_successful_response() {
 
@@ -172,4 +183,45 @@ class SchedulerNominalTest {
             );
         });
     }
+
+    @Test
+    void should_export_the_max_concurrent_streams_advertised_by_the_apns_server() {
+
+        // Given
+        givenPushInfoForToken("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad");
+
+        // When - triggering of the scheduled task
+
+        // Then
+        await().atMost(40, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(1);
+            assertThat(
+                    meterRegistry.get("pushy.connections.max.concurrent.streams")
+                            .tags("host", "localhost", "port", "2198")
+                            .gauge()
+                            .value()
+            )
+                    .isEqualTo(1500.0);
+        });
+    }
+
+    @Test
+    void should_open_apns_connections_before_reporting_the_application_ready() {
+
+        // Given - the application started
+
+        // When
+        final var health = apnsWarmUp.health();
+
+        // Then
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("outcome", "READY");
+        assertThat(
+                meterRegistry.get("pushy.connections.warmup")
+                        .tags("outcome", "READY")
+                        .timer()
+                        .count()
+        )
+                .isEqualTo(1);
+    }
 }
@@ -1,14 +1,17 @@
 package fr.gouv.stopc.robert.pushnotif.scheduler;
 
+import fr.gouv.stopc.robert.pushnotif.scheduler.PushWindowCache.PushWindow;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 
-import static fr.gouv.stopc.robert.pushnotif.scheduler.Scheduler.generatePushDateTomorrowBetween;
 import static java.time.ZoneOffset.UTC;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.oneOf;
 
 class SchedulerRandomDateGenerationTest {
@@ -41,4 +44,29 @@ class SchedulerRandomDateGenerationTest {
         assertThatThrownBy(() -> generatePushDateTomorrowBetween(10, 10, ZoneId.of("Europe/Paris")))
                 .hasMessage("bound must be positive");
     }
+
+    @RepeatedTest(100)
+    void a_random_push_date_skips_the_hour_missing_on_daylight_saving_time_day() {
+        final var window = PushWindow.tomorrow(1, 4, ZoneId.of("Europe/Paris"), Instant.parse("2026-03-28T12:00:00Z"));
+        final var nextPush = window.randomInstant()
+                .atZone(ZoneId.of("Europe/Paris"));
+        assertThat("window should last 2 hours", window.getLength(), is(120));
+        assertThat(nextPush.toLocalDate(), is(LocalDate.of(2026, 3, 29)));
+        assertThat("random hour should be between 1 (included) and 4 (excluded)", nextPush.getHour(), oneOf(1, 3));
+    }
+
+    @Test
+    void a_push_window_is_valid_until_the_next_local_midnight() {
+        final var window = PushWindow
+                .tomorrow(10, 12, ZoneId.of("Europe/Paris"), Instant.parse("2026-10-18T21:59:00Z"));
+        assertThat(
+                Instant.ofEpochSecond(window.getValidUntilEpochMinute() * 60), is(Instant.parse("2026-10-18T22:00:00Z"))
+        );
+    }
+
+    private static Instant generatePushDateTomorrowBetween(final int minPushHour, final int maxPushHour,
+            final ZoneId timezone) {
+        return PushWindow.tomorrow(minPushHour, maxPushHour, timezone, Instant.now())
+                .randomInstant();
+    }
 }
@@ -0,0 +1,52 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatAllPushInfo;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static java.util.stream.IntStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.max-notifications-per-second=1000",
+        "robert.push.server.apns.response-executor.threads=1",
+        "robert.push.server.apns.response-executor.queue-capacity=1"
+})
+class SchedulerSaturatedResponseExecutorTest {
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void responses_rejected_by_the_saturated_executor_are_still_handled() {
+        // Given
+        rangeClosed(1, 100).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When
+        scheduler.sendNotifications();
+
+        // Then
+        assertThat(meterRegistry.get("apns.response.rejected").counter().count())
+                .as("responses rejected by the executor")
+                .isGreaterThan(0.0);
+        assertThatAllPushInfo()
+                .extracting(
+                        PushInfo::getSuccessfulPushSent, PushInfo::getFailedPushSent, PushInfo::getLastAcceptingServer
+                )
+                .containsOnly(tuple(1, 0, "localhost:2198"));
+    }
+}
@@ -0,0 +1,59 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.TimeUnit;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatAllPushInfo;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.IntStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.slot-allocator.enabled=true",
+        "robert.push.server.slot-allocator.refresh-interval=1h"
+})
+class SchedulerSlotAllocatorTest {
+
+    @Autowired
+    PushLoadEndpoint pushLoadEndpoint;
+
+    @Test
+    void next_push_dates_are_spread_evenly_over_the_push_window() {
+        // Given - twice as many notifications as minutes between 8:00 and 10:00
+        rangeClosed(1, 240).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When - the scheduler runs
+
+        // Then
+        await().atMost(40, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThatNotifsAcceptedBy(PRIMARY).hasSize(240));
+        assertThatAllPushInfo()
+                .extracting(PushInfo::getNextPlannedPush)
+                .satisfies(
+                        nextPlannedPushes -> assertThat(
+                                nextPlannedPushes.stream().collect(groupingBy(instant -> instant, counting()))
+                        )
+                                .hasSize(120)
+                                .allSatisfy((minute, count) -> assertThat(count).isEqualTo(2L))
+                );
+
+        final var loadCurve = pushLoadEndpoint.loadCurve();
+        assertThat(loadCurve.getPlannedPerMinute()).hasSize(120);
+        assertThat(loadCurve.getPeakPerMinute()).isEqualTo(2);
+        assertThat(loadCurve.getCapacityPerMinute()).isPositive();
+    }
+}
@@ -0,0 +1,58 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.PushInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatAllPushInfo;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.mode=STREAMING",
+        "robert.push.server.scheduler.claim-chunk-size=10",
+        "robert.push.server.streaming.queue-capacity=1",
+        "robert.push.server.max-notifications-per-second=1",
+        "robert.push.server.max-number-of-pending-notifications=1"
+})
+class SchedulerStreamingShutdownTest {
+
+    @Autowired
+    NotificationPipeline notificationPipeline;
+
+    @Test
+    void claimed_notifications_not_queued_are_put_back_to_their_due_date_on_shutdown() {
+        // Given
+        IntStream.rangeClosed(1, 10).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+        await().atMost(10, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThatNotifsAcceptedBy(PRIMARY).isNotEmpty());
+
+        // When
+        final var stopStart = Instant.now();
+        notificationPipeline.stop();
+
+        // Then
+        assertThat(Duration.between(stopStart, Instant.now()))
+                .as("stop duration")
+                .isLessThan(Duration.ofSeconds(5));
+        assertThatAllPushInfo()
+                .filteredOn(pushInfo -> pushInfo.getNextPlannedPush().isBefore(Instant.now()))
+                .isNotEmpty()
+                .extracting(PushInfo::getSuccessfulPushSent)
+                .containsOnly(0);
+    }
+}
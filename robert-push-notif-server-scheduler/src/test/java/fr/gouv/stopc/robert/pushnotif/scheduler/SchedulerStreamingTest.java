@@ -0,0 +1,68 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatAllPushInfo;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.mode=STREAMING",
+        "robert.push.server.scheduler.claim-chunk-size=3",
+        "robert.push.server.streaming.queue-capacity=2",
+        "robert.push.server.streaming.idle-poll-interval=200ms"
+})
+class SchedulerStreamingTest {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void due_notifications_are_sent_continuously_through_the_pipeline() {
+        // Given
+        final var countBefore = processed("write");
+        IntStream.rangeClosed(1, 10).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When - the pipeline claims the due notifications
+
+        // Then
+        await().atMost(20, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(10);
+            assertThatAllPushInfo()
+                    .hasSize(10)
+                    .allSatisfy(pushInfo -> assertThat(pushInfo.getSuccessfulPushSent()).isEqualTo(1));
+        });
+        assertThat(processed("read")).isGreaterThanOrEqualTo(10);
+        assertThat(processed("dispatch")).isGreaterThanOrEqualTo(10);
+        assertThat(processed("write") - countBefore).isEqualTo(10);
+        assertThat(queueDepth("dispatch")).isZero();
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThat(meterRegistry.get("push.notifier.lag").timeGauge().value(MILLISECONDS))
+                        .as("notifications were due yesterday")
+                        .isGreaterThan(0.0)
+        );
+    }
+
+    private double processed(final String stage) {
+        return meterRegistry.get("push.pipeline.processed").tag("stage", stage).counter().count();
+    }
+
+    private double queueDepth(final String stage) {
+        return meterRegistry.get("push.pipeline.queue.depth").tag("stage", stage).gauge().value();
+    }
+}
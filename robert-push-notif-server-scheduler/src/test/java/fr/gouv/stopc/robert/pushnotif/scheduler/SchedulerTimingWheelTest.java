@@ -0,0 +1,74 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.TimeUnit;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.time.Instant.now;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@DirtiesContext
+@TestPropertySource(properties = {
+        "robert.push.server.scheduler.mode=TIMING_WHEEL",
+        "robert.push.server.timing-wheel.horizon=3h",
+        "robert.push.server.timing-wheel.refill-interval=500ms"
+})
+class SchedulerTimingWheelTest {
+
+    private static final String DUE_TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    private static final String UPCOMING_TOKEN = "45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589";
+
+    private static final String LATER_TOKEN = "5bf1dc9e8ec7ac5a12d9a06bbf6c0e7a1b88d4a4ce5e8fd63a2f3e6f1ad39e19";
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void notifications_planned_within_the_horizon_are_prefetched_and_sent_when_due() {
+        // Given
+        givenPushInfoForToken(DUE_TOKEN);
+        givenPushInfoForTokenAndNextPlannedPush(UPCOMING_TOKEN, now().plus(2, HOURS));
+        givenPushInfoForTokenAndNextPlannedPush(LATER_TOKEN, now().plus(5, HOURS));
+        await().atMost(10, TimeUnit.SECONDS)
+                .untilAsserted(() -> assertThat(prefetchedNotifications()).isEqualTo(2.0));
+
+        // When
+        scheduler.sendNotifications();
+
+        // Then
+        await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(1)
+                    .first()
+                    .hasFieldOrPropertyWithValue("token", DUE_TOKEN);
+            assertThatPushInfo(DUE_TOKEN)
+                    .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .satisfies(
+                            pushInfo -> assertThat(pushInfo.getNextPlannedPush())
+                                    .isAfter(now().plus(1, DAYS).truncatedTo(DAYS))
+                    );
+        });
+        assertThat(prefetchedNotifications()).isEqualTo(1.0);
+        assertThatPushInfo(UPCOMING_TOKEN)
+                .hasFieldOrPropertyWithValue("successfulPushSent", 0);
+    }
+
+    private double prefetchedNotifications() {
+        return meterRegistry.get("push.notifier.prefetched").gauge().value();
+    }
+}
@@ -3,7 +3,10 @@ package fr.gouv.stopc.robert.pushnotif.scheduler;
 import com.eatthepath.pushy.apns.DeliveryPriority;
 import com.eatthepath.pushy.apns.PushType;
 import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.concurrent.TimeUnit;
 
@@ -12,10 +15,10 @@ import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManag
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.SECONDARY;
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.assertThatNotifsAcceptedBy;
-import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatPushInfo;
-import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
 import static java.time.Instant.now;
 import static java.time.temporal.ChronoUnit.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
 import static org.assertj.core.api.HamcrestCondition.matching;
 import static org.awaitility.Awaitility.await;
@@ -26,6 +29,9 @@ import static org.hamcrest.Matchers.*;
 @IntegrationTest
 class SchedulerWithTwoApnsServerTest {
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Test
     void should_correctly_update_push_status_when_send_notification_to_first_apn_server_with_successful_response() {
 
@@ -48,6 +54,7 @@ class SchedulerWithTwoApnsServerTest {
                     .hasFieldOrPropertyWithValue("lastFailurePush", null)
                     .hasFieldOrPropertyWithValue("lastErrorCode", null)
                     .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2198")
                     .is(matching(hasProperty("lastSuccessfulPush", within(1, MINUTES, now()))))
                     .is(matching(hasProperty("nextPlannedPush", after(now().plus(1, DAYS).truncatedTo(DAYS)))));
 
@@ -122,6 +129,7 @@ class SchedulerWithTwoApnsServerTest {
                     .hasFieldOrPropertyWithValue("lastFailurePush", null)
                     .hasFieldOrPropertyWithValue("lastErrorCode", null)
                     .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2197")
                     .is(matching(hasProperty("lastSuccessfulPush", within(1, MINUTES, now()))))
                     .is(matching(hasProperty("nextPlannedPush", after(now().plus(1, DAYS).truncatedTo(DAYS)))));
 
@@ -140,6 +148,67 @@ class SchedulerWithTwoApnsServerTest {
         });
     }
 
+    @Test
+    void should_send_notification_directly_to_the_server_which_last_accepted_the_token() {
+
+        // Given
+        final var avoidedHopsBefore = avoidedHopsCounter().count();
+        givenPushInfoForTokenAndLastAcceptingServer(
+                "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", "localhost:2197"
+        );
+        givenApnsServerRejectsTokenIdWith(
+                PRIMARY, "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", BAD_DEVICE_TOKEN
+        );
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, TimeUnit.SECONDS).untilAsserted(() -> {
+
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(0);
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(0);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(1);
+            assertThatNotifsRejectedBy(SECONDARY).hasSize(0);
+
+            assertThatPushInfo("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad")
+                    .hasFieldOrPropertyWithValue("active", true)
+                    .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("failedPushSent", 0)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2197");
+
+            assertThat(avoidedHopsCounter().count() - avoidedHopsBefore).isEqualTo(1.0);
+        });
+    }
+
+    @Test
+    void should_fall_back_to_failover_order_when_the_server_which_last_accepted_the_token_rejects_it() {
+
+        // Given
+        givenPushInfoForTokenAndLastAcceptingServer(
+                "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", "localhost:2197"
+        );
+        givenApnsServerRejectsTokenIdWith(
+                SECONDARY, "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", BAD_DEVICE_TOKEN
+        );
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, TimeUnit.SECONDS).untilAsserted(() -> {
+
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(1);
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(0);
+            assertThatNotifsAcceptedBy(SECONDARY).hasSize(0);
+            assertThatNotifsRejectedBy(SECONDARY).hasSize(1);
+
+            assertThatPushInfo("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad")
+                    .hasFieldOrPropertyWithValue("active", true)
+                    .hasFieldOrPropertyWithValue("successfulPushSent", 1)
+                    .hasFieldOrPropertyWithValue("failedPushSent", 0)
+                    .hasFieldOrPropertyWithValue("lastAcceptingServer", "localhost:2198");
+        });
+    }
+
     @Test
     void should_deactivate_notification_when_both_server_replies_invalid_token_response() {
 
@@ -208,4 +277,8 @@ class SchedulerWithTwoApnsServerTest {
                     .is(matching(hasProperty("nextPlannedPush", after(now().plus(1, DAYS).truncatedTo(DAYS)))));
         });
     }
+
+    private Counter avoidedHopsCounter() {
+        return meterRegistry.get("pushy.notifications.failover.avoided.hops").counter();
+    }
 }
@@ -0,0 +1,70 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    private static final long NOW = 28_000_000L * 60 + 30;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(NOW);
+
+    @Test
+    void overdue_elements_are_returned_by_the_next_poll() {
+        wheel.add(NOW - 10, "overdue");
+        wheel.add(NOW, "now");
+
+        assertThat(wheel.pollUntil(NOW)).containsExactly("overdue", "now");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void elements_are_returned_when_their_minute_is_reached() {
+        wheel.add(NOW + 2, "in 2 minutes");
+        wheel.add(NOW + 1, "in 1 minute");
+
+        assertThat(wheel.pollUntil(NOW)).isEmpty();
+        assertThat(wheel.pollUntil(NOW + 1)).containsExactly("in 1 minute");
+        assertThat(wheel.size()).isOne();
+        assertThat(wheel.pollUntil(NOW + 2)).containsExactly("in 2 minutes");
+    }
+
+    @Test
+    void elements_of_later_hours_are_returned_when_their_minute_is_reached() {
+        wheel.add(NOW + 45, "next hour");
+        wheel.add(NOW + 23 * 60 + 50, "tomorrow");
+
+        assertThat(wheel.pollUntil(NOW + 44)).isEmpty();
+        assertThat(wheel.pollUntil(NOW + 45)).containsExactly("next hour");
+        assertThat(wheel.pollUntil(NOW + 23 * 60 + 49)).isEmpty();
+        assertThat(wheel.pollUntil(NOW + 23 * 60 + 50)).containsExactly("tomorrow");
+    }
+
+    @Test
+    void all_elements_are_returned_after_a_day_without_poll() {
+        wheel.add(NOW + 5, "in 5 minutes");
+        wheel.add(NOW + 10 * 60, "in 10 hours");
+
+        assertThat(wheel.pollUntil(NOW + 2 * 24 * 60)).containsExactlyInAnyOrder("in 5 minutes", "in 10 hours");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void elements_due_in_a_day_or_more_are_refused() {
+        assertThat(wheel.add(NOW + 24 * 60, "in a day")).isFalse();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void cleared_wheel_holds_no_element() {
+        wheel.add(NOW - 10, "overdue");
+        wheel.add(NOW + 1, "in 1 minute");
+        wheel.add(NOW + 45, "next hour");
+
+        wheel.clear();
+
+        assertThat(wheel.size()).isZero();
+        assertThat(wheel.pollUntil(NOW + 45)).isEmpty();
+    }
+}
@@ -0,0 +1,51 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.NONE;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.TOO_MANY_REQUESTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AimdRateControllerTest {
+
+    private final AimdRateController rateController = AimdRateController.builder()
+            .floor(10)
+            .ceiling(1000)
+            .increaseStep(10)
+            .decreaseFactor(0.5)
+            .latencySlo(Duration.ofSeconds(1))
+            .congestionRejectionReasons(List.of(TOO_MANY_REQUESTS))
+            .build();
+
+    @Test
+    void rate_increases_when_notifications_waited_for_the_rate_limit() {
+        rateController.onResponse(0, NONE);
+
+        assertThat(rateController.nextRate(100, true)).isEqualTo(110);
+    }
+
+    @Test
+    void rate_does_not_increase_under_a_light_load() {
+        rateController.onResponse(0, NONE);
+
+        assertThat(rateController.nextRate(100, false)).isEqualTo(100);
+    }
+
+    @Test
+    void rate_decreases_after_a_congestion_rejection() {
+        rateController.onResponse(0, TOO_MANY_REQUESTS);
+
+        assertThat(rateController.nextRate(100, true)).isEqualTo(50);
+    }
+
+    @Test
+    void rate_decreases_after_an_error() {
+        rateController.onResponse(0, NONE);
+        rateController.onError();
+
+        assertThat(rateController.nextRate(100, true)).isEqualTo(50);
+    }
+}
@@ -0,0 +1,48 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.INTERNAL_SERVER_ERROR;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.CircuitBreaker.State.HALF_OPEN;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.CircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static CircuitBreaker.CircuitBreakerBuilder breaker() {
+        return CircuitBreaker.builder()
+                .failureRateThreshold(50)
+                .slowCallDuration(Duration.ofSeconds(1))
+                .slowCallRateThreshold(100)
+                .slidingWindowSize(1)
+                .minimumNumberOfCalls(1)
+                .permittedCallsInHalfOpenState(2)
+                .failureRejectionReasons(List.of(INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    void calls_are_not_started_while_open() {
+        final var circuitBreaker = breaker().waitDurationInOpenState(Duration.ofHours(1)).build();
+
+        assertThat(circuitBreaker.tryStartCall()).isTrue();
+        circuitBreaker.onResponse(0, INTERNAL_SERVER_ERROR);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(OPEN);
+        assertThat(circuitBreaker.tryStartCall()).isFalse();
+    }
+
+    @Test
+    void only_permitted_trial_calls_are_started_while_half_open() {
+        final var circuitBreaker = breaker().waitDurationInOpenState(Duration.ZERO).build();
+        circuitBreaker.tryStartCall();
+        circuitBreaker.onResponse(0, INTERNAL_SERVER_ERROR);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(HALF_OPEN);
+        assertThat(circuitBreaker.tryStartCall()).isTrue();
+        assertThat(circuitBreaker.tryStartCall()).isTrue();
+        assertThat(circuitBreaker.tryStartCall()).isFalse();
+    }
+}
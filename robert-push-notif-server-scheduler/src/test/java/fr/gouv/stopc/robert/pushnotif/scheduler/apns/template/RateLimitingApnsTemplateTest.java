@@ -0,0 +1,99 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.apns.template;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import io.github.bucket4j.Bandwidth;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+
+class RateLimitingApnsTemplateTest {
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private final RateLimitingApnsTemplate rateLimitingApnsTemplate = new RateLimitingApnsTemplate(
+            1,
+            rate -> Bandwidth.simple(rate, Duration.ofHours(1)),
+            null,
+            Duration.ofSeconds(1),
+            new ApnsServerCoordinates("localhost", 443),
+            new SimpleMeterRegistry(),
+            new SendingApnsTemplate()
+    );
+
+    @Test
+    void queued_notifications_are_completed_as_unavailable_on_close() throws Exception {
+        final var handler = new CountingHandler();
+        for (int i = 0; i < 3; i++) {
+            rateLimitingApnsTemplate.sendNotification(null, handler);
+        }
+        await().untilAtomic(sent, equalTo(1));
+
+        rateLimitingApnsTemplate.close();
+
+        assertThat(sent).hasValue(1);
+        assertThat(handler.unavailable).hasValue(2);
+        assertThat(rateLimitingApnsTemplate.hasQueuedNotifications()).isFalse();
+    }
+
+    @Test
+    void notifications_sent_after_close_are_completed_as_unavailable() throws Exception {
+        final var handler = new CountingHandler();
+        rateLimitingApnsTemplate.close();
+
+        rateLimitingApnsTemplate.sendNotification(null, handler);
+
+        assertThat(sent).hasValue(0);
+        assertThat(handler.unavailable).hasValue(1);
+        assertThat(rateLimitingApnsTemplate.hasQueuedNotifications()).isFalse();
+    }
+
+    private class SendingApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
+
+        @Override
+        public void sendNotification(final ApnsPushNotification notification, final ApnsResponseHandler handler) {
+            sent.incrementAndGet();
+        }
+
+        @Override
+        public int waitUntilNoActivity(final Duration timeout) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingHandler implements ApnsResponseHandler {
+
+        private final AtomicInteger unavailable = new AtomicInteger();
+
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onRejection(final RejectionReason reason) {
+        }
+
+        @Override
+        public void onInactive(final RejectionReason reason) {
+        }
+
+        @Override
+        public void onError(final Throwable cause) {
+        }
+
+        @Override
+        public void onUnavailable() {
+            unavailable.incrementAndGet();
+        }
+    }
+}
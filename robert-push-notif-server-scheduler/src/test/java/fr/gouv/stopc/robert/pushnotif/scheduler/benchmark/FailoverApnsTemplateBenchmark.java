@@ -0,0 +1,145 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.benchmark;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsOperations;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsResponseHandler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsServerCoordinates;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsResponseHandler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsTemplate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.BAD_DEVICE_TOKEN;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Compares throughput and allocation rate of the index based
+ * {@link FailoverApnsTemplate} with the former queue based implementation, on
+ * notifications accepted by the first server and on notifications failing over
+ * to the second server.
+ * <p>
+ * Run it with the {@link #main(String[])} method after
+ * {@code mvn test-compile}: the allocation rate is reported by the
+ * {@code gc.alloc.rate.norm} metric.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = SECONDS)
+@Fork(1)
+public class FailoverApnsTemplateBenchmark {
+
+    @Param({ "index", "queue" })
+    String implementation;
+
+    @Param({ "accepted", "failover" })
+    String scenario;
+
+    private ApnsOperations<FailoverApnsResponseHandler> failoverTemplate;
+
+    private ApnsPushNotification notification;
+
+    private FailoverApnsResponseHandler responseHandler;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        final var firstServer = "accepted".equals(scenario)
+                ? new SynchronousApnsTemplate(null)
+                : new SynchronousApnsTemplate(BAD_DEVICE_TOKEN);
+        final var servers = new LinkedHashMap<ApnsServerCoordinates, ApnsOperations<ApnsResponseHandler>>();
+        servers.put(new ApnsServerCoordinates("first", 443), firstServer);
+        servers.put(new ApnsServerCoordinates("second", 443), new SynchronousApnsTemplate(null));
+        failoverTemplate = "index".equals(implementation)
+                ? new FailoverApnsTemplate(servers, new SimpleMeterRegistry())
+                : new LegacyFailoverApnsTemplate(List.copyOf(servers.values()));
+        notification = new SimpleApnsPushNotification("0123456789abcdef", "topic", "{}");
+        responseHandler = new BlackholeResponseHandler(blackhole);
+    }
+
+    @Benchmark
+    public void sendNotification() {
+        failoverTemplate.sendNotification(notification, responseHandler);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final var options = new OptionsBuilder()
+                .include(FailoverApnsTemplateBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Answers on the caller thread, with an inactive rejection when a reason is
+     * given, with a success otherwise.
+     */
+    @RequiredArgsConstructor
+    private static class SynchronousApnsTemplate implements ApnsOperations<ApnsResponseHandler> {
+
+        private final RejectionReason inactiveReason;
+
+        @Override
+        public void sendNotification(final ApnsPushNotification notification,
+                final ApnsResponseHandler handler) {
+            if (inactiveReason == null) {
+                handler.onSuccess();
+            } else {
+                handler.onInactive(inactiveReason);
+            }
+        }
+
+        @Override
+        public int waitUntilNoActivity(final Duration timeout) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class BlackholeResponseHandler implements FailoverApnsResponseHandler {
+
+        private final Blackhole blackhole;
+
+        @Override
+        public void onSuccess(final ApnsServerCoordinates server) {
+            blackhole.consume(server);
+        }
+
+        @Override
+        public void onRejection(final List<RejectionReason> reasons) {
+            blackhole.consume(reasons);
+        }
+
+        @Override
+        public void onError(final Throwable reason) {
+            blackhole.consume(reason);
+        }
+
+        @Override
+        public void onInactive(final List<RejectionReason> reasons) {
+            blackhole.consume(reasons);
+        }
+
+        @Override
+        public void onNotAttempted(final List<RejectionReason> reasons) {
+            blackhole.consume(reasons);
+        }
+    }
+}
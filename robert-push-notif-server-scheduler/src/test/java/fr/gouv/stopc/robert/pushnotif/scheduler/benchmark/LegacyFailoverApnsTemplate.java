@@ -0,0 +1,118 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.benchmark;
+
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsOperations;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.ApnsResponseHandler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsResponseHandler;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * The queue based failover implementation used before the index based
+ * {@link fr.gouv.stopc.robert.pushnotif.scheduler.apns.template.FailoverApnsTemplate},
+ * kept as a baseline for {@link FailoverApnsTemplateBenchmark}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+class LegacyFailoverApnsTemplate implements ApnsOperations<FailoverApnsResponseHandler> {
+
+    private final List<ApnsOperations<ApnsResponseHandler>> apnsDelegates;
+
+    @Override
+    public void sendNotification(final ApnsPushNotification notification,
+            final FailoverApnsResponseHandler responseHandler) {
+
+        final var apnsTemplates = new ConcurrentLinkedQueue<>(apnsDelegates);
+        final var first = apnsTemplates.poll();
+        if (first != null) {
+            first.sendNotification(
+                    notification,
+                    new TryOnNextServerAfterInactiveResponseHandler(notification, apnsTemplates, responseHandler)
+            );
+        }
+    }
+
+    @Override
+    public int waitUntilNoActivity(final Duration timeout) {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        var remaining = 0;
+        for (final var apnsTemplate : apnsDelegates) {
+            final var remainingTime = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+            remaining += apnsTemplate.waitUntilNoActivity(remainingTime);
+        }
+        return remaining;
+    }
+
+    @Override
+    public void close() {
+        apnsDelegates.parallelStream().forEach(delegate -> {
+            try {
+                delegate.close();
+            } catch (final Exception e) {
+                log.error("Unable to close {} gracefully", delegate, e);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        final var serverList = apnsDelegates.stream()
+                .map(Object::toString)
+                .collect(joining(","));
+        return String.format("LegacyFailover(%s)", serverList);
+    }
+
+    @RequiredArgsConstructor
+    private static class TryOnNextServerAfterInactiveResponseHandler implements ApnsResponseHandler {
+
+        private final List<RejectionReason> rejectionsHistory = new ArrayList<>();
+
+        private final ApnsPushNotification notification;
+
+        private final ConcurrentLinkedQueue<ApnsOperations<ApnsResponseHandler>> apnsTemplates;
+
+        private final FailoverApnsResponseHandler failoverResponseHandler;
+
+        @Override
+        public void onSuccess() {
+            // the queue based implementation did not report the accepting server
+            failoverResponseHandler.onSuccess(null);
+        }
+
+        @Override
+        public void onRejection(final RejectionReason reason) {
+            rejectionsHistory.add(reason);
+            failoverResponseHandler.onRejection(rejectionsHistory);
+        }
+
+        @Override
+        public void onError(final Throwable cause) {
+            failoverResponseHandler.onError(cause);
+        }
+
+        @Override
+        public void onUnavailable() {
+            failoverResponseHandler.onNotAttempted(rejectionsHistory);
+        }
+
+        @Override
+        public void onInactive(final RejectionReason reason) {
+            rejectionsHistory.add(reason);
+            final var nextApnsTemplate = apnsTemplates.poll();
+            if (null != nextApnsTemplate) {
+                // try next apns in the queue
+                nextApnsTemplate.sendNotification(notification, this);
+            } else {
+                failoverResponseHandler.onInactive(rejectionsHistory);
+            }
+        }
+    }
+}
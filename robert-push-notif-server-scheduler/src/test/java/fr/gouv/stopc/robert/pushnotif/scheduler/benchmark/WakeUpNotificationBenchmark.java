@@ -0,0 +1,81 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.benchmark;
+
+import com.eatthepath.pushy.apns.DeliveryPriority;
+import com.eatthepath.pushy.apns.PushType;
+import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import fr.gouv.stopc.robert.pushnotif.database.ApnsTokenCodec;
+import fr.gouv.stopc.robert.pushnotif.scheduler.apns.WakeUpNotificationFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+
+import static com.eatthepath.pushy.apns.util.SimpleApnsPushNotification.DEFAULT_EXPIRATION_PERIOD;
+import static com.eatthepath.pushy.apns.util.TokenUtil.sanitizeTokenString;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Compares throughput and allocation rate of the
+ * {@link WakeUpNotificationFactory}, building notifications from the stored
+ * token bytes, with the former per notification payload serialization and token
+ * sanitization.
+ * <p>
+ * Run it with the {@link #main(String[])} method after
+ * {@code mvn test-compile}: the allocation rate is reported by the
+ * {@code gc.alloc.rate.norm} metric.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = SECONDS)
+@Fork(1)
+public class WakeUpNotificationBenchmark {
+
+    private static final String TOPIC = "fr.gouv.stopcovid.prod";
+
+    private static final String TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    private final byte[] tokenBytes = ApnsTokenCodec.toBytes(TOKEN);
+
+    private WakeUpNotificationFactory notificationFactory;
+
+    @Setup
+    public void setup() {
+        notificationFactory = new WakeUpNotificationFactory(TOPIC, Instant.now().plus(DEFAULT_EXPIRATION_PERIOD));
+    }
+
+    @Benchmark
+    public SimpleApnsPushNotification factory() {
+        return notificationFactory.build(tokenBytes);
+    }
+
+    @Benchmark
+    public SimpleApnsPushNotification perNotificationPayload() {
+        final var payload = new SimpleApnsPayloadBuilder()
+                .setContentAvailable(true)
+                .setBadgeNumber(0)
+                .build();
+        return new SimpleApnsPushNotification(
+                sanitizeTokenString(TOKEN).toLowerCase(),
+                TOPIC,
+                payload,
+                Instant.now().plus(DEFAULT_EXPIRATION_PERIOD),
+                DeliveryPriority.IMMEDIATE,
+                PushType.BACKGROUND
+        );
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final var options = new OptionsBuilder()
+                .include(WakeUpNotificationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,74 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.ratelimiting;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.apns.RejectionReason.TOO_MANY_REQUESTS;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.*;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.APNsMockServersManager.ServerId.PRIMARY;
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.LongStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@IntegrationTest
+@TestPropertySource(properties = {
+        "robert.push.server.max-notifications-per-second=100",
+        "robert.push.server.rate-limiting.adaptive.enabled=true",
+        "robert.push.server.rate-limiting.adaptive.floor=10",
+        "robert.push.server.rate-limiting.adaptive.ceiling=1000",
+        "robert.push.server.rate-limiting.adaptive.increase-step=10",
+        "robert.push.server.rate-limiting.adaptive.decrease-factor=0.5",
+        "robert.push.server.rate-limiting.adaptive.latency-slo=10s"
+})
+class SchedulerAdaptiveRateLimitingTest {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void rate_increases_while_apns_server_accepts_notifications() {
+
+        // Given
+        rangeClosed(1, 200).forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+        final var rateBefore = primaryServerRate();
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsAcceptedBy(PRIMARY).hasSize(200);
+            assertThat(primaryServerRate()).isGreaterThan(rateBefore);
+        });
+    }
+
+    @Test
+    void rate_decreases_when_apns_server_rejects_notifications_with_too_many_requests() {
+
+        // Given
+        final var token = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+        givenPushInfoForToken(token);
+        givenApnsServerRejectsTokenIdWith(PRIMARY, token, TOO_MANY_REQUESTS);
+        final var rateBefore = primaryServerRate();
+
+        // When -- triggering of the scheduled job
+
+        // Then
+        await().atMost(40, SECONDS).untilAsserted(() -> {
+            assertThatNotifsRejectedBy(PRIMARY).hasSize(1);
+            assertThat(primaryServerRate()).isLessThan(rateBefore);
+        });
+    }
+
+    private int primaryServerRate() {
+        return (int) meterRegistry.get("pushy.notifications.ratelimiting.rate")
+                .tags("host", "localhost", "port", "2198")
+                .gauge()
+                .value();
+    }
+}
@@ -2,6 +2,7 @@ package fr.gouv.stopc.robert.pushnotif.scheduler.ratelimiting;
 
 import fr.gouv.stopc.robert.pushnotif.scheduler.Scheduler;
 import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.Tags;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +10,7 @@ import org.springframework.test.context.TestPropertySource;
 
 import java.time.Duration;
 
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.MetricsManager.assertCounterIncremented;
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.assertThatAllPushInfo;
 import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.givenPushInfoForToken;
@@ -58,5 +60,6 @@ class SchedulerRateLimiting1sTest {
         final var expectedDuration = Duration.ofSeconds(notificationsNumber);
         assertThat(Duration.between(before, after))
                 .isGreaterThanOrEqualTo(expectedDuration.minusSeconds(1));
+        assertCounterIncremented("pushy.notifications.ratelimiting.wait", notificationsNumber, Tags.empty());
     }
 }
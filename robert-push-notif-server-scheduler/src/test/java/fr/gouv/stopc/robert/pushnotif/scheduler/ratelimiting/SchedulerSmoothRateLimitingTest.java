@@ -0,0 +1,64 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.ratelimiting;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.Scheduler;
+import fr.gouv.stopc.robert.pushnotif.scheduler.test.IntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.test.context.TestPropertySource;
+
+import static fr.gouv.stopc.robert.pushnotif.scheduler.test.PsqlManager.*;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.IntStream.rangeClosed;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@IntegrationTest
+@AutoConfigureMetrics
+@TestPropertySource(properties = {
+        "robert.push.server.max-notifications-per-second=10",
+        "robert.push.server.scheduler.delay-in-ms=10000000000",
+        "robert.push.server.rate-limiting.pacing=SMOOTH",
+        "robert.push.server.rate-limiting.burst=1"
+})
+class SchedulerSmoothRateLimitingTest {
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void should_send_notifications_evenly_spread_over_each_second() {
+
+        // Given
+        rangeClosed(1, 30)
+                .forEach(i -> givenPushInfoForToken(randomUUID().toString()));
+
+        // When
+        scheduler.sendNotifications();
+
+        // Then
+        assertThatAllPushInfo()
+                .extracting(PushInfo::getSuccessfulPushSent)
+                .containsOnly(1);
+        final var gaps = meterRegistry.get("pushy.notifications.ratelimiting.gap")
+                .tags("port", "2198")
+                .timer()
+                .takeSnapshot();
+        assertThat(gaps.count())
+                .as("gaps between two consecutive queued sends")
+                .isBetween(25L, 29L);
+        assertThat(gaps.histogramCounts())
+                .as("gaps shorter than half the interval between two sends")
+                .filteredOn(bucket -> bucket.bucket(MILLISECONDS) <= 50.0)
+                .extracting(CountAtBucket::count)
+                .containsOnly(0.0);
+        assertThat(gaps.mean(MILLISECONDS))
+                .as("mean time between two sends")
+                .isBetween(90.0, 110.0);
+    }
+}
@@ -0,0 +1,121 @@
+package fr.gouv.stopc.robert.pushnotif.scheduler.repository;
+
+import fr.gouv.stopc.robert.pushnotif.scheduler.configuration.RobertPushServerProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PushOutcomeBufferTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final FailingPushInfoRepository pushInfoRepository = new FailingPushInfoRepository();
+
+    private final PushOutcomeBuffer pushOutcomeBuffer = new PushOutcomeBuffer(
+            pushInfoRepository,
+            RobertPushServerProperties.builder()
+                    .outcomeBuffer(
+                            RobertPushServerProperties.OutcomeBuffer.builder()
+                                    .maxSize(1000)
+                                    .maxAge(Duration.ofHours(1))
+                                    .capacity(3)
+                                    .build()
+                    )
+                    .build(),
+            meterRegistry
+    );
+
+    @AfterEach
+    void close() throws InterruptedException {
+        pushOutcomeBuffer.close();
+    }
+
+    @Test
+    void outcomes_are_written_once_when_a_write_is_retried() {
+        pushInfoRepository.failuresBeforeSuccess = 2;
+        pushOutcomeBuffer.addSuccess(1, "localhost:2198");
+        pushOutcomeBuffer.addFailure(2, "BadDeviceToken");
+
+        pushOutcomeBuffer.flush();
+
+        assertThat(pushInfoRepository.successfulIds).containsExactly(1L);
+        assertThat(pushInfoRepository.failedIds).containsExactly(2L);
+        assertThat(dropped()).isZero();
+    }
+
+    @Test
+    void outcomes_are_dropped_and_counted_after_the_last_attempt() {
+        pushInfoRepository.failuresBeforeSuccess = 3;
+        pushOutcomeBuffer.addSuccess(1, "localhost:2198");
+        pushOutcomeBuffer.addSuccess(2, "localhost:2198");
+
+        pushOutcomeBuffer.flush();
+
+        assertThat(pushInfoRepository.successfulIds).isEmpty();
+        assertThat(dropped()).isEqualTo(2.0);
+    }
+
+    @Test
+    void outcomes_beyond_the_capacity_are_dropped_and_counted() {
+        pushOutcomeBuffer.addSuccess(1, "localhost:2198");
+        pushOutcomeBuffer.addSuccess(2, "localhost:2198");
+        pushOutcomeBuffer.addFailure(3, "BadDeviceToken");
+        pushOutcomeBuffer.addFailure(4, "BadDeviceToken");
+
+        pushOutcomeBuffer.flush();
+
+        assertThat(pushInfoRepository.successfulIds).containsExactly(1L, 2L);
+        assertThat(pushInfoRepository.failedIds).containsExactly(3L);
+        assertThat(dropped()).isEqualTo(1.0);
+    }
+
+    @Test
+    void outcomes_added_once_closed_are_written_immediately() throws InterruptedException {
+        pushOutcomeBuffer.close();
+
+        pushOutcomeBuffer.addSuccess(1, "localhost:2198");
+
+        assertThat(pushInfoRepository.successfulIds).containsExactly(1L);
+    }
+
+    private double dropped() {
+        return meterRegistry.get("push.outcome.dropped").counter().count();
+    }
+
+    /**
+     * Fails to write the successful outcomes the given number of times.
+     */
+    private static class FailingPushInfoRepository extends PushInfoRepository {
+
+        private int failuresBeforeSuccess;
+
+        private final List<Long> successfulIds = new ArrayList<>();
+
+        private final List<Long> failedIds = new ArrayList<>();
+
+        FailingPushInfoRepository() {
+            super(null);
+        }
+
+        @Override
+        public void updateSuccessfulPushSent(final List<Long> ids, final List<String> acceptingServers) {
+            if (failuresBeforeSuccess > 0) {
+                failuresBeforeSuccess--;
+                throw new DataAccessResourceFailureException("database unavailable");
+            }
+            successfulIds.addAll(ids);
+        }
+
+        @Override
+        public void updateFailure(final List<Long> ids, final List<String> failureDescriptions) {
+            failedIds.addAll(ids);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.assertj.core.api.ListAssert;
 import org.springframework.test.context.TestContext;
 import org.springframework.test.context.TestExecutionListener;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,10 @@ public class APNsMockServersManager implements TestExecutionListener {
         servers.get(serverId).resetMockWithRejectedToken(token, reason);
     }
 
+    public static void givenApnsServerRespondsAfter(final ServerId serverId, final Duration responseDelay) {
+        servers.get(serverId).setResponseDelay(responseDelay);
+    }
+
     @Override
     public void beforeTestExecution(final TestContext testContext) throws Exception {
         TestExecutionListener.super.beforeTestExecution(testContext);
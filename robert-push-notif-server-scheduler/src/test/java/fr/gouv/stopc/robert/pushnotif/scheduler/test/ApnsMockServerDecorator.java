@@ -14,11 +14,13 @@ import org.springframework.core.io.ClassPathResource;
 
 import javax.net.ssl.SSLSession;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyMap;
@@ -28,6 +30,8 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
 
     private final int port;
 
+    private volatile Duration responseDelay = Duration.ZERO;
+
     private MockApnsServer mock = initMock(emptyMap());
 
     @Getter
@@ -55,7 +59,11 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
                 .setTrustedClientCertificateChain(new ClassPathResource("/apns/ca.pem").getInputStream())
                 .setEventLoopGroup(new NioEventLoopGroup(2))
                 .setListener(this)
-                .setHandlerFactory(new CustomValidationPushNotificationHandlerFactory(rejectionReasonPerTokenMap))
+                .setHandlerFactory(
+                        new CustomValidationPushNotificationHandlerFactory(
+                                rejectionReasonPerTokenMap, () -> responseDelay
+                        )
+                )
                 .build();
     }
 
@@ -75,7 +83,12 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
         }
     }
 
+    void setResponseDelay(final Duration responseDelay) {
+        this.responseDelay = responseDelay;
+    }
+
     void resetMock() {
+        responseDelay = Duration.ZERO;
         try {
             mock.shutdown()
                     .thenAccept(ignored -> mock = initMock(emptyMap()))
@@ -102,7 +115,11 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
 
         private final Map<String, com.eatthepath.pushy.apns.server.RejectionReason> rejectionReasonPerTokenMap;
 
-        public CustomValidationPushNotificationHandlerFactory(final Map<String, RejectionReason> map) {
+        private final Supplier<Duration> responseDelay;
+
+        public CustomValidationPushNotificationHandlerFactory(final Map<String, RejectionReason> map,
+                final Supplier<Duration> responseDelay) {
+            this.responseDelay = responseDelay;
             this.rejectionReasonPerTokenMap = map.entrySet().stream().collect(
                     Collectors.toMap(
                             Map.Entry::getKey,
@@ -113,7 +130,7 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
 
         @Override
         public PushNotificationHandler buildHandler(final SSLSession sslSession) {
-            return new CustomValidationPushNotificationHandler(rejectionReasonPerTokenMap);
+            return new CustomValidationPushNotificationHandler(rejectionReasonPerTokenMap, responseDelay);
         }
     }
 
@@ -124,6 +141,7 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
      * <li>reason = BAD_DEVICE_TOKEN in case device's token is equal to
      * 987654321</li>
      * </ul>
+     * Responses are sent after the configured response delay.
      */
     @RequiredArgsConstructor
     private static class CustomValidationPushNotificationHandler implements PushNotificationHandler {
@@ -132,9 +150,13 @@ class ApnsMockServerDecorator extends ParsingMockApnsServerListenerAdapter {
 
         private final Map<String, com.eatthepath.pushy.apns.server.RejectionReason> rejectionReasonPerTokenMap;
 
+        private final Supplier<Duration> responseDelay;
+
         @Override
+        @SneakyThrows(InterruptedException.class)
         public void handlePushNotification(final Http2Headers headers, final ByteBuf payload)
                 throws RejectedNotificationException {
+            Thread.sleep(responseDelay.get().toMillis());
             final CharSequence pathSequence = headers.get(Http2Headers.PseudoHeaderName.PATH.value());
 
             if (pathSequence != null) {
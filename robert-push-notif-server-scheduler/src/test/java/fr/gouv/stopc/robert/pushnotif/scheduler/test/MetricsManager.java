@@ -48,4 +48,13 @@ public class MetricsManager implements TestExecutionListener {
         final var timer = meterRegistry.timer(name, tags.and(SERVER_INFORMATION_TAGS));
         return assertThat(timer.count() - metersSnapshot.getOrDefault(timer.getId(), 0L)).isEqualTo(increment);
     }
+
+    public static AbstractLongAssert<?> assertThatTimerCountIncrement(final String name) {
+        final var increment = meterRegistry.find(name)
+                .timers()
+                .stream()
+                .mapToLong(timer -> timer.count() - metersSnapshot.getOrDefault(timer.getId(), 0L))
+                .sum();
+        return assertThat(increment);
+    }
 }
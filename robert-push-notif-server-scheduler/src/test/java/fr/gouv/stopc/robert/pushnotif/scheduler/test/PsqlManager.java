@@ -1,5 +1,6 @@
 package fr.gouv.stopc.robert.pushnotif.scheduler.test;
 
+import fr.gouv.stopc.robert.pushnotif.database.ApnsTokenCodec;
 import lombok.Builder;
 import lombok.Value;
 import org.assertj.core.api.ListAssert;
@@ -20,6 +21,7 @@ import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
@@ -37,53 +39,96 @@ public class PsqlManager implements TestExecutionListener {
     );
 
     static {
-        POSTGRES.withCommand("-c", "log_statement=all");
-        POSTGRES.start();
-        System.setProperty("spring.datasource.url", POSTGRES.getJdbcUrl());
-        System.setProperty("spring.datasource.username", POSTGRES.getUsername());
-        System.setProperty("spring.datasource.password", POSTGRES.getPassword());
+
+        System.setProperty("spring.datasource.url", "jdbc:postgresql://localhost:5433/sched");
+        System.setProperty("spring.datasource.username", "postgres");
+        System.setProperty("spring.datasource.password", "x");
     }
 
     @Override
     public void beforeTestMethod(final TestContext testContext) {
+        jdbcTemplate = testContext.getApplicationContext().getBean(NamedParameterJdbcTemplate.class);
         jdbcTemplate.getJdbcTemplate().execute("drop schema public cascade;");
         jdbcTemplate.getJdbcTemplate().execute("create schema public;");
         testContext.getApplicationContext().getBean(Flyway.class).migrate();
     }
 
+    /**
+     * Removes the notifications of the test, so that they are not loaded by the
+     * next application context starting before its first test method.
+     */
+    @Override
+    public void afterTestMethod(final TestContext testContext) {
+        jdbcTemplate.getJdbcTemplate().execute("delete from push;");
+    }
+
     @Override
     public void beforeTestClass(final TestContext testContext) {
         jdbcTemplate = testContext.getApplicationContext().getBean(NamedParameterJdbcTemplate.class);
     }
 
     public static void givenPushInfoForToken(String token) {
-        givenPushInfoForTokenAndNextPlannedPush(
-                token,
-                LocalDateTime.from(
-                        LocalDate.now().atStartOfDay().plusHours(new Random().nextInt(24))
-                                .plusMinutes(new Random().nextInt(60)).minusDays(1)
-                )
-                        .toInstant(UTC)
-        );
+        givenPushInfoForTokenAndNextPlannedPush(token, yesterdayAtRandomTime());
     }
 
     public static void givenPushInfoForTokenAndNextPlannedPush(String token, Instant nextPlannedPush) {
+        givenPushInfo(token, nextPlannedPush, null, null);
+    }
+
+    public static void givenPushInfoForTokenAndTimezone(String token, String timezone) {
+        givenPushInfo(token, yesterdayAtRandomTime(), null, null, timezone);
+    }
+
+    public static void givenPushInfoForTokenAndLastAcceptingServer(String token, String lastAcceptingServer) {
+        givenPushInfo(token, yesterdayAtRandomTime(), lastAcceptingServer, null);
+    }
+
+    public static void givenPushInfoForTokenAndPushMinute(String token, int pushMinute) {
+        givenPushInfo(token, yesterdayAtRandomTime(), null, pushMinute);
+    }
+
+    private static void givenPushInfo(String token, Instant nextPlannedPush, String lastAcceptingServer,
+            Integer pushMinute) {
+        givenPushInfo(token, nextPlannedPush, lastAcceptingServer, pushMinute, "Europe/Paris");
+    }
+
+    private static void givenPushInfo(String token, Instant nextPlannedPush, String lastAcceptingServer,
+            Integer pushMinute, String timezone) {
+        final var values = new HashMap<String, Object>(
+                Map.of(
+                        "creation_date", Timestamp.from(Instant.now()),
+                        "locale", "fr-FR",
+                        "timezone", timezone,
+                        "token", toBytes(token),
+                        "active", true,
+                        "deleted", false,
+                        "successful_push_sent", 0,
+                        "failed_push_sent", 0,
+                        "next_planned_push", Timestamp.from(nextPlannedPush)
+                )
+        );
+        values.put("last_accepting_server", lastAcceptingServer);
+        values.put("push_minute", pushMinute);
         new SimpleJdbcInsert(jdbcTemplate.getJdbcTemplate())
                 .withTableName("push")
                 .usingGeneratedKeyColumns("id")
-                .execute(
-                        Map.of(
-                                "creation_date", Timestamp.from(Instant.now()),
-                                "locale", "fr-FR",
-                                "timezone", "Europe/Paris",
-                                "token", token,
-                                "active", true,
-                                "deleted", false,
-                                "successful_push_sent", 0,
-                                "failed_push_sent", 0,
-                                "next_planned_push", Timestamp.from(nextPlannedPush)
-                        )
-                );
+                .execute(values);
+    }
+
+    private static Instant yesterdayAtRandomTime() {
+        return LocalDateTime.from(
+                LocalDate.now().atStartOfDay().plusHours(new Random().nextInt(24))
+                        .plusMinutes(new Random().nextInt(60)).minusDays(1)
+        )
+                .toInstant(UTC);
+    }
+
+    /**
+     * Decodes the hexadecimal digits of the token, other characters like the
+     * hyphens of random UUIDs are ignored.
+     */
+    private static byte[] toBytes(final String token) {
+        return ApnsTokenCodec.toBytes(token.replaceAll("[^0-9a-fA-F]", ""));
     }
 
     public static ListAssert<PushInfo> assertThatAllPushInfo() {
@@ -93,7 +138,7 @@ public class PsqlManager implements TestExecutionListener {
 
     public static ObjectAssert<PushInfo> assertThatPushInfo(final String token) {
         final var push = jdbcTemplate.queryForObject(
-                "select * from push where token = :token", Map.of("token", token),
+                "select * from push where token = :token", Map.of("token", toBytes(token)),
                 PushInfoRowMapper.INSTANCE
         );
         return assertThat(push)
@@ -121,6 +166,10 @@ public class PsqlManager implements TestExecutionListener {
         String lastErrorCode;
 
         Instant nextPlannedPush;
+
+        String lastAcceptingServer;
+
+        Integer pushMinute;
     }
 
     private static class PushInfoRowMapper implements RowMapper<PushInfo> {
@@ -130,7 +179,7 @@ public class PsqlManager implements TestExecutionListener {
         @Override
         public PushInfo mapRow(final ResultSet rs, final int rowNum) throws SQLException {
             return PushInfo.builder()
-                    .token(rs.getString("token"))
+                    .token(ApnsTokenCodec.toHexString(rs.getBytes("token")))
                     .active(rs.getBoolean("active"))
                     .deleted(rs.getBoolean("deleted"))
                     .successfulPushSent(rs.getInt("successful_push_sent"))
@@ -139,6 +188,8 @@ public class PsqlManager implements TestExecutionListener {
                     .lastFailurePush(toInstant(rs.getTimestamp("last_failure_push")))
                     .lastErrorCode(rs.getString("last_error_code"))
                     .nextPlannedPush(toInstant(rs.getTimestamp("next_planned_push")))
+                    .lastAcceptingServer(rs.getString("last_accepting_server"))
+                    .pushMinute(rs.getObject("push_minute", Integer.class))
                     .build();
         }
 
@@ -16,8 +16,11 @@ import javax.validation.Valid;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
 import static java.time.temporal.ChronoUnit.MINUTES;
 import static org.springframework.http.HttpStatus.*;
@@ -28,6 +31,19 @@ import static org.springframework.http.HttpStatus.*;
 @RequiredArgsConstructor
 public class PushNotifController implements PushTokenApi {
 
+    /**
+     * APNs device tokens are currently 32 bytes long, but Apple documents them as
+     * variable length and may make them longer, up to 100 bytes.
+     */
+    private static final Pattern CANONICAL_TOKEN = Pattern.compile("([0-9a-f]{2}){32,100}");
+
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[\\s<>]");
+
+    /**
+     * {@link ZoneId#getAvailableZoneIds()} builds a new set on each call.
+     */
+    private static final Set<String> AVAILABLE_ZONE_IDS = ZoneId.getAvailableZoneIds();
+
     private final PushInfoRepository pushInfoRepository;
 
     private final RobertPushServerProperties robertPushServerProperties;
@@ -35,10 +51,11 @@ public class PushNotifController implements PushTokenApi {
     @Override
     public ResponseEntity<Void> registerPushToken(final @Valid PushRequest pushRequest) {
 
-        if (!ZoneId.getAvailableZoneIds().contains(pushRequest.getTimezone())) {
+        final var token = canonicalToken(pushRequest.getToken());
+        if (!AVAILABLE_ZONE_IDS.contains(pushRequest.getTimezone()) || token.isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
-        final var dbPushInfos = pushInfoRepository.findByToken(pushRequest.getToken());
+        final var dbPushInfos = pushInfoRepository.findByToken(token.get());
 
         if (dbPushInfos.isPresent()) {
             final var foundPushInfos = dbPushInfos.get();
@@ -53,7 +70,7 @@ public class PushNotifController implements PushTokenApi {
         } else {
             this.pushInfoRepository.save(
                     PushInfo.builder()
-                            .token(pushRequest.getToken())
+                            .token(token.get())
                             .locale(pushRequest.getLocale())
                             .timezone(pushRequest.getTimezone())
                             .active(true)
@@ -67,13 +84,24 @@ public class PushNotifController implements PushTokenApi {
 
     @Override
     public ResponseEntity<Void> unRegisterPushToken(final String token) {
-        return this.pushInfoRepository.findByToken(token).map(push -> {
+        return canonicalToken(token).flatMap(this.pushInfoRepository::findByToken).map(push -> {
             push.setDeleted(true);
             this.pushInfoRepository.save(push);
             return new ResponseEntity<Void>(ACCEPTED);
         }).orElse(ResponseEntity.status(BAD_REQUEST).build());
     }
 
+    /**
+     * Returns the lower case hexadecimal representation of the token, as it is
+     * stored, or an empty optional when the token can't be sent to APNs servers.
+     * Spaces and angle brackets, like in the description of iOS {@code NSData}
+     * tokens, are ignored.
+     */
+    private static Optional<String> canonicalToken(final String token) {
+        final var canonicalToken = TOKEN_SEPARATORS.matcher(token).replaceAll("").toLowerCase();
+        return CANONICAL_TOKEN.matcher(canonicalToken).matches() ? Optional.of(canonicalToken) : Optional.empty();
+    }
+
     private Instant generateDateTomorrowBetweenBounds(final String timezone) {
 
         final Random random = ThreadLocalRandom.current();
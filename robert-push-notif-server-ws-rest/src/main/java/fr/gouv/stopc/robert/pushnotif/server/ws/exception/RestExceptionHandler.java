@@ -1,22 +1,32 @@
 package fr.gouv.stopc.robert.pushnotif.server.ws.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @ControllerAdvice
 public class RestExceptionHandler extends ResponseEntityExceptionHandler {
 
+    /**
+     * SQL states of the exclusion constraint enforcing the uniqueness of tokens and
+     * of a unique constraint violation.
+     */
+    private static final Set<String> DUPLICATE_TOKEN_SQL_STATES = Set.of("23P01", "23505");
+
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(
             final MethodArgumentNotValidException ex,
@@ -36,4 +46,19 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
                 new HttpHeaders(), HttpStatus.BAD_REQUEST, request
         );
     }
+
+    /**
+     * The same token registered by concurrent requests is inserted once, the other
+     * requests answer 409.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<Void> handleDataIntegrityViolation(final DataIntegrityViolationException ex) {
+        final var cause = ex.getMostSpecificCause();
+        if (cause instanceof SQLException
+                && DUPLICATE_TOKEN_SQL_STATES.contains(((SQLException) cause).getSQLState())) {
+            log.warn("Token registered concurrently: {}", cause.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        throw ex;
+    }
 }
@@ -1,5 +1,6 @@
 package fr.gouv.stopc.robert.pushnotif.server.ws.model;
 
+import fr.gouv.stopc.robert.pushnotif.server.ws.repository.ApnsTokenAttributeConverter;
 import fr.gouv.stopc.robert.pushnotif.server.ws.repository.TimeStampInstantAttributeConverter;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -14,7 +15,7 @@ import javax.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "PUSH", indexes = { @Index(name = "IDX_TOKEN", columnList = "token") })
+@Table(name = "PUSH")
 @DynamicUpdate
 @Data
 @Builder
@@ -27,7 +28,12 @@ public class PushInfo {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     Long id;
 
+    /**
+     * The canonical lower case hexadecimal representation of the APNs token, stored
+     * as the bytes it encodes.
+     */
     @Column(name = "token", unique = true, nullable = false)
+    @Convert(converter = ApnsTokenAttributeConverter.class)
     private String token;
 
     @Column(name = "timezone", nullable = false)
@@ -0,0 +1,28 @@
+package fr.gouv.stopc.robert.pushnotif.server.ws.repository;
+
+import fr.gouv.stopc.robert.pushnotif.database.ApnsTokenCodec;
+
+import javax.persistence.AttributeConverter;
+
+/**
+ * Stores the canonical lower case hexadecimal representation of APNs tokens as
+ * the bytes it encodes.
+ */
+public class ApnsTokenAttributeConverter implements AttributeConverter<String, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(String attribute) {
+        if (attribute == null) {
+            return null;
+        }
+        return ApnsTokenCodec.toBytes(attribute);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] dbData) {
+        if (dbData == null) {
+            return null;
+        }
+        return ApnsTokenCodec.toHexString(dbData);
+    }
+}
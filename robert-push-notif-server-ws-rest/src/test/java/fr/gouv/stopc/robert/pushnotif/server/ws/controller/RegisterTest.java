@@ -6,9 +6,12 @@ import fr.gouv.stopc.robert.pushnotif.server.ws.test.IntegrationTest;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import java.util.stream.IntStream;
+
 import static fr.gouv.stopc.robert.pushnotif.server.ws.test.InstantInAcceptedRangeMatcher.isTimeBetween8amAnd7Pm;
 import static fr.gouv.stopc.robert.pushnotif.server.ws.test.PsqlManager.*;
 import static fr.gouv.stopc.robert.pushnotif.server.ws.test.RestAssuredManager.givenBaseHeaders;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.springframework.http.HttpStatus.*;
@@ -18,11 +21,11 @@ class RegisterTest {
 
     @RepeatedTest(1000)
     void created_when_new_pushToken_is_sent() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("Europe/Paris")
                                 .build()
@@ -36,12 +39,12 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("locale", is("fr-FR")),
                                 hasProperty("timezone", is("Europe/Paris"))
                         ),
                         allOf(
-                                hasProperty("token", is("OtherPushToken")),
+                                hasProperty("token", is(OTHER_PUSH_TOKEN)),
                                 hasProperty("locale", is("fr-FR")),
                                 hasProperty("timezone", is("Europe/Paris"))
                         )
@@ -51,11 +54,11 @@ class RegisterTest {
 
     @RepeatedTest(1000)
     void created_with_zone_offset_11_has_nextPushDate_setup_between_7pm_and_6am_next_day_utc() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("en-EN")
                                 .timezone("Pacific/Kosrae")
                                 .build()
@@ -69,12 +72,12 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("locale", is("fr-FR")),
                                 hasProperty("timezone", is("Europe/Paris"))
                         ),
                         allOf(
-                                hasProperty("token", is("OtherPushToken")),
+                                hasProperty("token", is(OTHER_PUSH_TOKEN)),
                                 hasProperty("locale", is("en-EN")),
                                 hasProperty("timezone", is("Pacific/Kosrae")),
                                 hasProperty("nextPlannedPush", isTimeBetween8amAnd7Pm("Pacific/Kosrae"))
@@ -88,7 +91,7 @@ class RegisterTest {
 
         givenOnePushInfoSuchAs(
                 PushInfo.builder()
-                        .token("PushToken")
+                        .token(PUSH_TOKEN)
                         .locale("fr-FR")
                         .timezone("Europe/Paris")
                         .deleted(false)
@@ -99,7 +102,7 @@ class RegisterTest {
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("PushToken")
+                                .token(PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("Europe/Paris")
                                 .build()
@@ -113,7 +116,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("active", is(true)),
                                 hasProperty("nextPlannedPush", isTimeBetween8amAnd7Pm("Europe/Paris"))
                         )
@@ -126,7 +129,7 @@ class RegisterTest {
 
         givenOnePushInfoSuchAs(
                 PushInfo.builder()
-                        .token("PushToken")
+                        .token(PUSH_TOKEN)
                         .locale("fr-FR")
                         .timezone("Europe/Paris")
                         .deleted(true)
@@ -137,7 +140,7 @@ class RegisterTest {
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("PushToken")
+                                .token(PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("Europe/Paris")
                                 .build()
@@ -151,7 +154,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("deleted", equalTo(false)),
                                 hasProperty("active", equalTo(true)),
                                 hasProperty("nextPlannedPush", isTimeBetween8amAnd7Pm("Europe/Paris"))
@@ -165,7 +168,7 @@ class RegisterTest {
 
         givenOnePushInfoSuchAs(
                 PushInfo.builder()
-                        .token("PushToken")
+                        .token(PUSH_TOKEN)
                         .locale("fr-FR")
                         .timezone("Europe/Paris")
                         .deleted(true)
@@ -176,7 +179,7 @@ class RegisterTest {
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("PushToken")
+                                .token(PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("Pacific/Auckland")
                                 .build()
@@ -190,7 +193,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("deleted", equalTo(false)),
                                 hasProperty("active", equalTo(true)),
                                 hasProperty("nextPlannedPush", isTimeBetween8amAnd7Pm("Pacific/Auckland"))
@@ -202,11 +205,11 @@ class RegisterTest {
     @RepeatedTest(1000)
     void created_when_already_registered_but_with_different_values() {
 
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("PushToken")
+                                .token(PUSH_TOKEN)
                                 .locale("en-EN")
                                 .timezone("Europe/London")
                                 .build()
@@ -220,7 +223,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("locale", is("en-EN")),
                                 hasProperty("timezone", is("Europe/London")),
                                 hasProperty("nextPlannedPush", isTimeBetween8amAnd7Pm("Europe/Paris"))
@@ -231,7 +234,7 @@ class RegisterTest {
 
     @Test
     void method_not_allowed_when_using_get_method() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
 
         givenBaseHeaders()
                 .when()
@@ -243,7 +246,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -252,7 +255,7 @@ class RegisterTest {
 
     @Test
     void bad_request_when_body_is_empty() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .when()
                 .post("/internal/api/v1/push-token")
@@ -263,7 +266,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -272,7 +275,7 @@ class RegisterTest {
 
     @Test
     void bad_request_when_token_is_null() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
@@ -288,7 +291,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -297,7 +300,7 @@ class RegisterTest {
 
     @Test
     void bad_request_when_token_is_an_empty_string() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
@@ -314,7 +317,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -323,11 +326,11 @@ class RegisterTest {
 
     @Test
     void bad_request_when_locale_is_null() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .timezone("Europe/Paris")
                                 .build()
                 )
@@ -339,7 +342,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -348,11 +351,11 @@ class RegisterTest {
 
     @Test
     void bad_request_when_locale_is_an_empty_string() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("")
                                 .timezone("Europe/Paris")
                                 .build()
@@ -365,7 +368,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -374,11 +377,11 @@ class RegisterTest {
 
     @Test
     void bad_request_when_timezone_is_null() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .build()
                 )
@@ -390,7 +393,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -399,11 +402,11 @@ class RegisterTest {
 
     @Test
     void bad_request_when_timezone_is_an_empty_string() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("")
                                 .build()
@@ -416,7 +419,7 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
@@ -425,12 +428,12 @@ class RegisterTest {
 
     @Test
     void bad_request_when_timezone_is_invalid() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
 
         givenBaseHeaders()
                 .body(
                         PushRequest.builder()
-                                .token("OtherPushToken")
+                                .token(OTHER_PUSH_TOKEN)
                                 .locale("fr-FR")
                                 .timezone("Europe/Invalid")
                                 .build()
@@ -442,11 +445,84 @@ class RegisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("timezone", is("Europe/Paris")),
                                 hasProperty("nextPlannedPush", is(defaultNextPlannedPushDate))
                         )
                 )
         );
     }
+
+    @Test
+    void created_with_canonical_token_when_token_is_uppercase_with_separators() {
+        givenBaseHeaders()
+                .body(
+                        PushRequest.builder()
+                                .token("<" + OTHER_PUSH_TOKEN.toUpperCase().replaceAll("(.{8})", "$1 ").trim() + ">")
+                                .locale("fr-FR")
+                                .timezone("Europe/Paris")
+                                .build()
+                )
+                .post("/internal/api/v1/push-token")
+                .then()
+                .statusCode(CREATED.value());
+        assertThat(
+                getPushInfos(),
+                contains(
+                        hasProperty("token", is(OTHER_PUSH_TOKEN))
+                )
+        );
+    }
+
+    @Test
+    void bad_request_when_token_is_not_hexadecimal() {
+        givenBaseHeaders()
+                .body(
+                        PushRequest.builder()
+                                .token("OtherPushToken")
+                                .locale("fr-FR")
+                                .timezone("Europe/Paris")
+                                .build()
+                )
+                .post("/internal/api/v1/push-token")
+                .then()
+                .statusCode(BAD_REQUEST.value());
+        assertThat(getPushInfos(), hasSize(0));
+    }
+
+    @Test
+    void bad_request_when_token_is_too_short() {
+        givenBaseHeaders()
+                .body(
+                        PushRequest.builder()
+                                .token(OTHER_PUSH_TOKEN.substring(2))
+                                .locale("fr-FR")
+                                .timezone("Europe/Paris")
+                                .build()
+                )
+                .post("/internal/api/v1/push-token")
+                .then()
+                .statusCode(BAD_REQUEST.value());
+        assertThat(getPushInfos(), hasSize(0));
+    }
+
+    @Test
+    void created_or_conflict_when_the_same_token_is_registered_concurrently() {
+        final var statusCodes = IntStream.range(0, 10).parallel()
+                .mapToObj(
+                        i -> givenBaseHeaders()
+                                .body(
+                                        PushRequest.builder()
+                                                .token(OTHER_PUSH_TOKEN)
+                                                .locale("fr-FR")
+                                                .timezone("Europe/Paris")
+                                                .build()
+                                )
+                                .post("/internal/api/v1/push-token")
+                                .statusCode()
+                )
+                .collect(toList());
+        assertThat(statusCodes, everyItem(is(oneOf(CREATED.value(), CONFLICT.value()))));
+        assertThat(getPushInfos(), contains(hasProperty("token", is(OTHER_PUSH_TOKEN))));
+    }
 }
@@ -19,9 +19,9 @@ class UnregisterTest {
 
     @Test
     void existing_pushtoken_is_deleted() {
-        givenOneFrPushInfoWith("PushToken");
+        givenOneFrPushInfoWith(PUSH_TOKEN);
         givenBaseHeaders()
-                .delete("/internal/api/v1/push-token/" + "PushToken")
+                .delete("/internal/api/v1/push-token/" + PUSH_TOKEN)
                 .then()
                 .statusCode(ACCEPTED.value())
                 .body(is(emptyString()));
@@ -29,7 +29,7 @@ class UnregisterTest {
                 getPushInfos(),
                 contains(
                         allOf(
-                                hasProperty("token", is("PushToken")),
+                                hasProperty("token", is(PUSH_TOKEN)),
                                 hasProperty("deleted", is(true))
                         )
                 )
@@ -40,7 +40,7 @@ class UnregisterTest {
     void existing_already_deleted_pushtoken_is_still_deleted() {
         givenOnePushInfoSuchAs(
                 PushInfo.builder()
-                        .token("PushToken")
+                        .token(PUSH_TOKEN)
                         .locale("fr-FR")
                         .timezone("Europe/Paris")
                         .deleted(true)
@@ -49,7 +49,7 @@ class UnregisterTest {
                         .build()
         );
         givenBaseHeaders()
-                .delete("/internal/api/v1/push-token/" + "PushToken")
+                .delete("/internal/api/v1/push-token/" + PUSH_TOKEN)
                 .then()
                 .statusCode(ACCEPTED.value())
                 .body(is(emptyString()));
@@ -25,13 +25,17 @@ public class PsqlManager implements TestExecutionListener {
             DockerImageName.parse("postgres:13.7")
     );
 
+    public static final String PUSH_TOKEN = "740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad";
+
+    public static final String OTHER_PUSH_TOKEN = "45f6aa01da5ddb387462c7eaf61bb78ad740f4707bebcf74f9b7c25d48e33589";
+
     public static Instant defaultNextPlannedPushDate = LocalDateTime.now().toInstant(ZoneOffset.UTC);
 
     static {
-        POSTGRES.start();
-        System.setProperty("spring.datasource.url", POSTGRES.getJdbcUrl());
-        System.setProperty("spring.datasource.username", POSTGRES.getUsername());
-        System.setProperty("spring.datasource.password", POSTGRES.getPassword());
+
+        System.setProperty("spring.datasource.url", "jdbc:postgresql://localhost:5433/wsrest");
+        System.setProperty("spring.datasource.username", "postgres");
+        System.setProperty("spring.datasource.password", "x");
     }
 
     @Override